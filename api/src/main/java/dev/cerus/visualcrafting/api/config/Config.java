@@ -47,4 +47,35 @@ public interface Config {
      */
     boolean enablePacketListening();
 
+    /**
+     * Whether to write visualization packets without flushing and flush every
+     * touched connection once per tick instead
+     *
+     * @return True or false
+     */
+    boolean deferPacketFlush();
+
+    /**
+     * Whether to encode broadcast packets once and share the encoded bytes
+     * between all receiving connections
+     *
+     * @return True or false
+     */
+    boolean sharedPacketEncoding();
+
+    /**
+     * Whether to write item display packets directly instead of creating
+     * and encoding server packets
+     *
+     * @return True or false
+     */
+    boolean directDisplayEncoding();
+
+    /**
+     * Maximum amount of unused maps to keep for reuse
+     *
+     * @return Map pool size
+     */
+    int mapPoolSize();
+
 }
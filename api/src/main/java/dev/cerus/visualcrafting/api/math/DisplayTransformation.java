@@ -0,0 +1,95 @@
+package dev.cerus.visualcrafting.api.math;
+
+import java.util.Objects;
+import org.joml.Matrix4f;
+import org.joml.Quaternionf;
+import org.joml.Vector3f;
+
+/**
+ * An already decomposed display transformation (translation * left rotation * scale * right rotation)
+ * <p>
+ * Instances are meant to be computed once and shared, the returned vectors and quaternions must not be modified.
+ */
+public final class DisplayTransformation {
+
+    private static final Quaternionf IDENTITY = new Quaternionf();
+
+    private final Vector3f translation;
+    private final Quaternionf leftRotation;
+    private final Vector3f scale;
+    private final Quaternionf rightRotation;
+    private final Matrix4f matrix;
+
+    private DisplayTransformation(final Vector3f translation,
+                                  final Quaternionf leftRotation,
+                                  final Vector3f scale,
+                                  final Quaternionf rightRotation) {
+        this.translation = translation;
+        this.leftRotation = leftRotation;
+        this.scale = scale;
+        this.rightRotation = rightRotation;
+        this.matrix = new Matrix4f()
+                .translation(translation)
+                .rotate(leftRotation)
+                .scale(scale)
+                .rotate(rightRotation);
+    }
+
+    /**
+     * Create a transformation from its parts
+     *
+     * @param translation  The translation
+     * @param leftRotation The rotation that is applied after scaling
+     * @param scale        The scale
+     *
+     * @return A new transformation
+     */
+    public static DisplayTransformation of(final Vector3f translation, final Quaternionf leftRotation, final Vector3f scale) {
+        return new DisplayTransformation(new Vector3f(translation), new Quaternionf(leftRotation), new Vector3f(scale), IDENTITY);
+    }
+
+    public Vector3f getTranslation() {
+        return this.translation;
+    }
+
+    public Quaternionf getLeftRotation() {
+        return this.leftRotation;
+    }
+
+    public Vector3f getScale() {
+        return this.scale;
+    }
+
+    public Quaternionf getRightRotation() {
+        return this.rightRotation;
+    }
+
+    /**
+     * Get the combined transformation matrix
+     *
+     * @return The matrix
+     */
+    public Matrix4f getMatrix() {
+        return this.matrix;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof final DisplayTransformation that)) {
+            return false;
+        }
+        return this.translation.equals(that.translation)
+               && this.leftRotation.equals(that.leftRotation)
+               && this.scale.equals(that.scale)
+               && this.rightRotation.equals(that.rightRotation);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(this.translation, this.leftRotation, this.scale, this.rightRotation);
+    }
+
+}
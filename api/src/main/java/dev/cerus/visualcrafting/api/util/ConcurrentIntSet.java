@@ -0,0 +1,191 @@
+package dev.cerus.visualcrafting.api.util;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * A thread safe set of primitive ints
+ * <p>
+ * Lookups are lock free in the common case (optimistic reads) and do not box, which makes
+ * this set cheap enough to be queried for every incoming packet. Writes are exclusive.
+ */
+public class ConcurrentIntSet {
+
+    private static final int FREE = Integer.MIN_VALUE;
+    private static final int DEFAULT_CAPACITY = 64;
+
+    private final StampedLock lock = new StampedLock();
+    private int[] table;
+    private int size;
+    // FREE marks empty slots, so it has to be tracked separately
+    private volatile boolean containsFree;
+
+    public ConcurrentIntSet() {
+        this.table = newTable(DEFAULT_CAPACITY);
+    }
+
+    private static int[] newTable(final int capacity) {
+        final int[] table = new int[capacity];
+        Arrays.fill(table, FREE);
+        return table;
+    }
+
+    private static int slot(final int value, final int mask) {
+        final int h = value * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    private static boolean contains(final int[] table, final int value) {
+        final int mask = table.length - 1;
+        int slot = slot(value, mask);
+        // Bounded, an optimistic read may observe a table that is being modified
+        for (int i = 0; i < table.length; i++) {
+            final int current = table[slot];
+            if (current == value) {
+                return true;
+            }
+            if (current == FREE) {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return false;
+    }
+
+    /**
+     * Check if a value is in this set
+     *
+     * @param value The value
+     *
+     * @return True if the value is in this set
+     */
+    public boolean contains(final int value) {
+        if (value == FREE) {
+            return this.containsFree;
+        }
+
+        long stamp = this.lock.tryOptimisticRead();
+        boolean result = contains(this.table, value);
+        if (!this.lock.validate(stamp)) {
+            stamp = this.lock.readLock();
+            try {
+                result = contains(this.table, value);
+            } finally {
+                this.lock.unlockRead(stamp);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Add a value to this set
+     *
+     * @param value The value
+     *
+     * @return True if the value was not in this set before
+     */
+    public boolean add(final int value) {
+        if (value == FREE) {
+            final boolean added = !this.containsFree;
+            this.containsFree = true;
+            return added;
+        }
+
+        final long stamp = this.lock.writeLock();
+        try {
+            if ((this.size + 1) * 2 > this.table.length) {
+                this.resize(this.table.length * 2);
+            }
+            if (this.insert(this.table, value)) {
+                this.size++;
+                return true;
+            }
+            return false;
+        } finally {
+            this.lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Remove a value from this set
+     *
+     * @param value The value
+     *
+     * @return True if the value was in this set
+     */
+    public boolean remove(final int value) {
+        if (value == FREE) {
+            final boolean removed = this.containsFree;
+            this.containsFree = false;
+            return removed;
+        }
+
+        final long stamp = this.lock.writeLock();
+        try {
+            final int[] table = this.table;
+            final int mask = table.length - 1;
+            int slot = slot(value, mask);
+            while (table[slot] != value) {
+                if (table[slot] == FREE) {
+                    return false;
+                }
+                slot = (slot + 1) & mask;
+            }
+
+            // Shift following entries back so that no probe chain gets interrupted
+            int free = slot;
+            int next = (free + 1) & mask;
+            while (table[next] != FREE) {
+                final int home = slot(table[next], mask);
+                if (((next - home) & mask) >= ((next - free) & mask)) {
+                    table[free] = table[next];
+                    free = next;
+                }
+                next = (next + 1) & mask;
+            }
+            table[free] = FREE;
+            this.size--;
+            return true;
+        } finally {
+            this.lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Remove all values from this set
+     */
+    public void clear() {
+        final long stamp = this.lock.writeLock();
+        try {
+            this.table = newTable(DEFAULT_CAPACITY);
+            this.size = 0;
+            this.containsFree = false;
+        } finally {
+            this.lock.unlockWrite(stamp);
+        }
+    }
+
+    private boolean insert(final int[] table, final int value) {
+        final int mask = table.length - 1;
+        int slot = slot(value, mask);
+        while (table[slot] != FREE) {
+            if (table[slot] == value) {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = value;
+        return true;
+    }
+
+    private void resize(final int capacity) {
+        final int[] newTable = newTable(capacity);
+        for (final int value : this.table) {
+            if (value != FREE) {
+                this.insert(newTable, value);
+            }
+        }
+        this.table = newTable;
+    }
+
+}
@@ -0,0 +1,93 @@
+package dev.cerus.visualcrafting.api.util;
+
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.LongFunction;
+
+/**
+ * A thread safe {@link LongMap}
+ * <p>
+ * Lookups are lock free in the common case (optimistic reads), writes are exclusive. Meant for Folia, where
+ * several region threads share one map.
+ *
+ * @param <V> The value type
+ */
+public class ConcurrentLongMap<V> extends LongMap<V> {
+
+    private final StampedLock lock = new StampedLock();
+
+    @Override
+    public V get(final long key) {
+        long stamp = this.lock.tryOptimisticRead();
+        V value = super.get(key);
+        if (!this.lock.validate(stamp)) {
+            stamp = this.lock.readLock();
+            try {
+                value = super.get(key);
+            } finally {
+                this.lock.unlockRead(stamp);
+            }
+        }
+        return value;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The factory is called while this map is locked, it must not access this map.
+     */
+    @Override
+    public V getOrCreate(final long key, final LongFunction<? extends V> factory) {
+        final V existing = this.get(key);
+        if (existing != null) {
+            return existing;
+        }
+
+        final long stamp = this.lock.writeLock();
+        try {
+            return super.getOrCreate(key, factory);
+        } finally {
+            this.lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public V put(final long key, final V value) {
+        final long stamp = this.lock.writeLock();
+        try {
+            return super.put(key, value);
+        } finally {
+            this.lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public V remove(final long key, final V value) {
+        final long stamp = this.lock.writeLock();
+        try {
+            return super.remove(key, value);
+        } finally {
+            this.lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public void clear() {
+        final long stamp = this.lock.writeLock();
+        try {
+            super.clear();
+        } finally {
+            this.lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    Table copyTable() {
+        final long stamp = this.lock.readLock();
+        try {
+            return super.copyTable();
+        } finally {
+            this.lock.unlockRead(stamp);
+        }
+    }
+
+}
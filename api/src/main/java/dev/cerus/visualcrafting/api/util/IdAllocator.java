@@ -0,0 +1,81 @@
+package dev.cerus.visualcrafting.api.util;
+
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Thread safe allocator for ids in a fixed range
+ * <p>
+ * Released ids are recycled before new ids are taken from the range. Allocation never
+ * blocks: recycled ids come from a lock free queue, fresh ids from a CAS bump pointer.
+ */
+public class IdAllocator {
+
+    // Fixed upper half for every derived uuid, makes them easy to recognize
+    private static final long UUID_MSB = 0x5643_5643_5643_4000L;
+    private static final long UUID_LSB_VARIANT = 0x8000_0000_0000_0000L;
+
+    private final int min;
+    private final int max;
+    private final AtomicInteger next;
+    private final Queue<Integer> released = new ConcurrentLinkedQueue<>();
+
+    /**
+     * @param min Smallest id (inclusive)
+     * @param max Largest id (exclusive)
+     */
+    public IdAllocator(final int min, final int max) {
+        this.min = min;
+        this.max = max;
+        this.next = new AtomicInteger(min);
+    }
+
+    /**
+     * Derive a uuid from an id. The same id always results in the same uuid.
+     *
+     * @param id The id
+     *
+     * @return The uuid
+     */
+    public static UUID uuidOf(final int id) {
+        return new UUID(UUID_MSB, UUID_LSB_VARIANT | (id & 0xFFFFFFFFL));
+    }
+
+    /**
+     * Allocate an id
+     *
+     * @return An id that is currently not in use
+     *
+     * @throws IllegalStateException If every id of the range is in use
+     */
+    public int allocate() {
+        // Oldest released ids first, gives clients the most time to process the removal
+        final Integer recycled = this.released.poll();
+        if (recycled != null) {
+            return recycled;
+        }
+
+        int id;
+        do {
+            id = this.next.get();
+            if (id >= this.max) {
+                throw new IllegalStateException("All ids between " + this.min + " and " + this.max + " are in use");
+            }
+        } while (!this.next.compareAndSet(id, id + 1));
+        return id;
+    }
+
+    /**
+     * Release an id so that it can be reused. Every allocated id must be released at most once.
+     *
+     * @param id The id
+     */
+    public void release(final int id) {
+        if (id >= this.min && id < this.max) {
+            this.released.offer(id);
+        }
+    }
+
+}
@@ -0,0 +1,243 @@
+package dev.cerus.visualcrafting.api.util;
+
+import java.util.function.LongFunction;
+import java.util.function.Predicate;
+
+/**
+ * A map from primitive longs to objects
+ * <p>
+ * Uses open addressing with linear probing, so lookups neither box the key nor follow any pointers besides the value.
+ * Null values are not supported. This map is not thread safe, see {@link ConcurrentLongMap}.
+ *
+ * @param <V> The value type
+ */
+public class LongMap<V> {
+
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private Table table = new Table(DEFAULT_CAPACITY);
+    private int size;
+
+    private static int slot(final long key, final int mask) {
+        final long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    /**
+     * Get the value of a key
+     *
+     * @param key The key
+     *
+     * @return The value or null if the key is not mapped
+     */
+    public V get(final long key) {
+        return this.find(key);
+    }
+
+    /**
+     * Get the value of a key, creating it if the key is not mapped yet
+     *
+     * @param key     The key
+     * @param factory Creates the value of an unmapped key, must not return null
+     *
+     * @return The existing or created value
+     */
+    public V getOrCreate(final long key, final LongFunction<? extends V> factory) {
+        final V existing = this.find(key);
+        if (existing != null) {
+            return existing;
+        }
+        final V created = factory.apply(key);
+        this.insert(key, created);
+        return created;
+    }
+
+    @SuppressWarnings("unchecked")
+    private V find(final long key) {
+        final Table table = this.table;
+        final int mask = table.keys.length - 1;
+        int slot = slot(key, mask);
+        // Bounded, concurrent subclasses may read a table that is being modified
+        for (int i = 0; i < table.keys.length; i++) {
+            final Object value = table.values[slot];
+            if (value == null) {
+                return null;
+            }
+            if (table.keys[slot] == key) {
+                return (V) value;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return null;
+    }
+
+    /**
+     * Map a key to a value
+     *
+     * @param key   The key
+     * @param value The value
+     *
+     * @return The previous value or null if the key was not mapped
+     */
+    public V put(final long key, final V value) {
+        return this.insert(key, value);
+    }
+
+    @SuppressWarnings("unchecked")
+    private V insert(final long key, final V value) {
+        if (value == null) {
+            throw new NullPointerException("value");
+        }
+        if ((this.size + 1) * 2 > this.table.keys.length) {
+            this.resize(this.table.keys.length * 2);
+        }
+
+        final Table table = this.table;
+        final int mask = table.keys.length - 1;
+        int slot = slot(key, mask);
+        while (table.values[slot] != null) {
+            if (table.keys[slot] == key) {
+                final Object previous = table.values[slot];
+                table.values[slot] = value;
+                return (V) previous;
+            }
+            slot = (slot + 1) & mask;
+        }
+        table.keys[slot] = key;
+        table.values[slot] = value;
+        this.size++;
+        return null;
+    }
+
+    /**
+     * Remove a key
+     *
+     * @param key The key
+     *
+     * @return The removed value or null if the key was not mapped
+     */
+    public V remove(final long key) {
+        return this.remove(key, null);
+    }
+
+    /**
+     * Remove a key, but only if it is mapped to the given value
+     *
+     * @param key   The key
+     * @param value The expected value, compared by identity. Null removes any value.
+     *
+     * @return The removed value or null if nothing was removed
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(final long key, final V value) {
+        final Table table = this.table;
+        final int mask = table.keys.length - 1;
+        int slot = slot(key, mask);
+        while (table.keys[slot] != key || table.values[slot] == null) {
+            if (table.values[slot] == null) {
+                return null;
+            }
+            slot = (slot + 1) & mask;
+        }
+        final Object removed = table.values[slot];
+        if (value != null && removed != value) {
+            return null;
+        }
+
+        // Shift following entries back so that no probe chain gets interrupted
+        int free = slot;
+        int next = (free + 1) & mask;
+        while (table.values[next] != null) {
+            final int home = slot(table.keys[next], mask);
+            if (((next - home) & mask) >= ((next - free) & mask)) {
+                table.keys[free] = table.keys[next];
+                table.values[free] = table.values[next];
+                free = next;
+            }
+            next = (next + 1) & mask;
+        }
+        table.values[free] = null;
+        this.size--;
+        return (V) removed;
+    }
+
+    /**
+     * Remove every value that matches a filter. The filter is called exactly once per value and may modify this map.
+     *
+     * @param filter The filter
+     */
+    @SuppressWarnings("unchecked")
+    public void removeIf(final Predicate<? super V> filter) {
+        final Table snapshot = this.copyTable();
+        for (int i = 0; i < snapshot.values.length; i++) {
+            final V value = (V) snapshot.values[i];
+            if (value != null && filter.test(value)) {
+                this.remove(snapshot.keys[i], value);
+            }
+        }
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    public boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    /**
+     * Remove every key
+     */
+    public void clear() {
+        this.table = new Table(DEFAULT_CAPACITY);
+        this.size = 0;
+    }
+
+    /**
+     * Copy the current table, e.g. for iterating over it while the map is being modified
+     *
+     * @return The copy
+     */
+    Table copyTable() {
+        final Table table = this.table;
+        return new Table(table.keys.clone(), table.values.clone());
+    }
+
+    private void resize(final int capacity) {
+        final Table old = this.table;
+        final Table table = new Table(capacity);
+        final int mask = capacity - 1;
+        for (int i = 0; i < old.values.length; i++) {
+            if (old.values[i] != null) {
+                int slot = slot(old.keys[i], mask);
+                while (table.values[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                table.keys[slot] = old.keys[i];
+                table.values[slot] = old.values[i];
+            }
+        }
+        this.table = table;
+    }
+
+    /**
+     * Keys and values are replaced together, so that a reader never sees arrays of different sizes
+     */
+    static final class Table {
+
+        final long[] keys;
+        // Null marks empty slots
+        final Object[] values;
+
+        private Table(final int capacity) {
+            this(new long[capacity], new Object[capacity]);
+        }
+
+        private Table(final long[] keys, final Object[] values) {
+            this.keys = keys;
+            this.values = values;
+        }
+
+    }
+
+}
@@ -0,0 +1,49 @@
+package dev.cerus.visualcrafting.api.version;
+
+import java.util.Collection;
+import java.util.List;
+import org.bukkit.Bukkit;
+import org.bukkit.entity.Player;
+
+/**
+ * The players that should receive a packet
+ */
+@FunctionalInterface
+public interface Audience {
+
+    /**
+     * Every online player
+     */
+    Audience ALL = Bukkit::getOnlinePlayers;
+
+    /**
+     * An audience consisting of a single player
+     *
+     * @param player The player
+     *
+     * @return A new audience
+     */
+    static Audience of(final Player player) {
+        final List<Player> players = List.of(player);
+        return () -> players;
+    }
+
+    /**
+     * An audience consisting of the given players. Changes to the collection are reflected by the audience.
+     *
+     * @param players The players
+     *
+     * @return A new audience
+     */
+    static Audience of(final Collection<? extends Player> players) {
+        return () -> players;
+    }
+
+    /**
+     * Get the players of this audience
+     *
+     * @return The players
+     */
+    Collection<? extends Player> getPlayers();
+
+}
@@ -0,0 +1,509 @@
+package dev.cerus.visualcrafting.api.version;
+
+import dev.cerus.visualcrafting.api.math.DisplayTransformation;
+import dev.cerus.visualcrafting.api.util.IdAllocator;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandler;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.entity.Player;
+import org.bukkit.inventory.ItemStack;
+import org.joml.Quaternionf;
+import org.joml.Vector3f;
+
+/**
+ * Writes item display spawn and metadata packets straight into packet frames, without creating any
+ * nms packets, data watcher items or transformations.
+ * <p>
+ * The encoder learns the wire format from a sample packet that is encoded by the server itself and
+ * only enables itself if its own encoding of that sample is byte for byte identical. Items are
+ * encoded once by the server and cached as bytes.
+ * <p>
+ * The server's encoder may only be used on the event loop of its channel, so learning and encoding items
+ * happens there in the background. The caller sends the regular nms packets until the encoder is ready.
+ */
+public class DirectDisplayEncoder {
+
+    private static final int END_OF_METADATA = 0xFF;
+    // Outside of every configurable id range
+    private static final int SAMPLE_ID = -1;
+    private static final FakeItemDisplay SAMPLE_DISPLAY = new FakeItemDisplay(
+            new Location(null, 1, 2, 3),
+            new ItemStack(Material.STONE),
+            DisplayTransformation.of(new Vector3f(0.25f, 0.5f, 0.75f), new Quaternionf().rotateX(1), new Vector3f(0.5f, 0.25f, 0.125f)),
+            FakeItemDisplay.Transform.GUI
+    );
+
+    private final DisplayProtocol protocol;
+    private final BulkPacketFactory replayFactory;
+    private final ItemPacketFactory itemFactory;
+    private final ItemConversionCache<byte[]> itemBytes;
+    // Items that are being encoded on the event loop
+    private final Set<ItemStack> pendingItems = ConcurrentHashMap.newKeySet();
+    private volatile Channel referenceChannel;
+    private volatile boolean disabled;
+    private volatile boolean learned;
+    private Class<?> packetType;
+    private boolean learning;
+
+    // Learned from the server's encoding
+    private byte[] bundleDelimiter;
+    private int spawnPacketId;
+    private int metadataPacketId;
+    private int entityTypeId;
+    private int vectorSerializer;
+    private int quaternionSerializer;
+    private int itemSerializer;
+    private int byteSerializer;
+
+    /**
+     * @param protocol      The metadata layout of the server's version
+     * @param replayFactory Creates a bundle with the spawn and full metadata packets of item displays
+     * @param itemFactory   Creates a metadata packet that only contains the displayed item
+     */
+    public DirectDisplayEncoder(final DisplayProtocol protocol, final BulkPacketFactory replayFactory, final ItemPacketFactory itemFactory) {
+        this.protocol = protocol;
+        this.replayFactory = replayFactory;
+        this.itemFactory = itemFactory;
+        this.itemBytes = new ItemConversionCache<>(VersionAdapter.ITEM_CONVERSION_CACHE_SIZE);
+    }
+
+    private static void writeVarInt(final ByteBuf buf, int value) {
+        while ((value & ~0x7F) != 0) {
+            buf.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buf.writeByte(value);
+    }
+
+    private static int readVarInt(final ByteBuf buf) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            if (shift >= 35) {
+                throw new IllegalStateException("VarInt too big");
+            }
+            b = buf.readByte();
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    private static void expect(final boolean condition) {
+        if (!condition) {
+            throw new IllegalStateException("Unexpected packet layout");
+        }
+    }
+
+    private static void release(final List<ByteBuf> frames) {
+        if (frames != null) {
+            frames.forEach(ByteBuf::release);
+        }
+    }
+
+    /**
+     * Encode item displays
+     *
+     * @param players       The receiving players, used to find a channel the encoding can be learned from
+     * @param channels      Resolves the channel of a player
+     * @param displayIds    The entity ids of the displays
+     * @param itemDisplays  The displays, in the same order as the ids
+     * @param spawn         Whether to spawn the displays before sending their metadata
+     * @param states        The metadata states of the displays, or null to send the full metadata
+     * @param fallback      Creates nms packets with the same effect for channels that can't take the frames
+     *
+     * @return The encoded packet, or null if the regular nms packets have to be used, e.g. because an item
+     * is not encoded yet
+     */
+    public EncodedPacket encode(final Collection<? extends Player> players,
+                                final Function<Player, Channel> channels,
+                                final int[] displayIds,
+                                final FakeItemDisplay[] itemDisplays,
+                                final boolean spawn,
+                                final IntFunction<MetadataState> states,
+                                final Supplier<?> fallback) {
+        final Channel reference = this.prepare(players, channels);
+        if (reference == null) {
+            return null;
+        }
+
+        // Look every item up before any metadata state is touched, so that the nms packets can still be used
+        final byte[][] items = new byte[itemDisplays.length][];
+        boolean missing = false;
+        for (int i = 0; i < itemDisplays.length; i++) {
+            final ItemStack itemStack = itemDisplays[i].getItemStack();
+            if (itemStack == null) {
+                return null;
+            }
+            items[i] = this.itemBytes.getCached(itemStack);
+            if (items[i] == null) {
+                this.encodeItem(reference, itemStack);
+                missing = true;
+            }
+        }
+        if (missing) {
+            return null;
+        }
+
+        final ByteBufAllocator alloc = reference.alloc();
+        final ByteBuf[] frames = new ByteBuf[displayIds.length * 2 + 2];
+        int count = 0;
+        try {
+            frames[count++] = alloc.ioBuffer(this.bundleDelimiter.length).writeBytes(this.bundleDelimiter);
+            for (int i = 0; i < displayIds.length; i++) {
+                if (spawn) {
+                    frames[count++] = this.writeSpawn(alloc.ioBuffer(), displayIds[i], itemDisplays[i]);
+                }
+                final ByteBuf metadata = this.writeMetadata(alloc.ioBuffer(), displayIds[i], itemDisplays[i],
+                        states == null ? null : states.apply(displayIds[i]), items[i]);
+                if (metadata != null) {
+                    frames[count++] = metadata;
+                }
+            }
+        } catch (final RuntimeException e) {
+            // Unexpected failure while writing, use the regular packets
+            for (int i = 0; i < count; i++) {
+                frames[i].release();
+            }
+            if (states != null) {
+                // Some values might already be marked as sent, the regular packets have to contain everything
+                for (final int displayId : displayIds) {
+                    states.apply(displayId).reset();
+                }
+            }
+            return null;
+        }
+
+        if (count == 1) {
+            // Nothing has changed
+            frames[0].release();
+            return new EncodedPacket(new ByteBuf[0], reference, fallback);
+        }
+        frames[count++] = alloc.ioBuffer(this.bundleDelimiter.length).writeBytes(this.bundleDelimiter);
+        final ByteBuf[] used = new ByteBuf[count];
+        System.arraycopy(frames, 0, used, 0, count);
+        return new EncodedPacket(used, reference, fallback);
+    }
+
+    /**
+     * Find a channel with the server's own encoder. Starts learning the encoding from it if that has not happened yet.
+     *
+     * @return The channel or null if the encoder can't be used right now
+     */
+    private Channel prepare(final Collection<? extends Player> players, final Function<Player, Channel> channels) {
+        if (this.disabled) {
+            return null;
+        }
+        final Channel current = this.referenceChannel;
+        if (current != null && current.isActive()) {
+            return current;
+        }
+
+        synchronized (this) {
+            if (this.packetType == null) {
+                this.packetType = this.itemFactory.create(SAMPLE_ID, SAMPLE_DISPLAY.getItemStack()).getClass();
+            }
+            for (final Player player : players) {
+                final Channel channel = channels.apply(player);
+                final ChannelHandler encoder = channel.pipeline().get(SharedPacketEncoder.ENCODER);
+                if (!channel.isActive() || !SharedPacketEncoder.isServerEncoder(encoder, this.packetType)) {
+                    continue;
+                }
+                if (this.learned) {
+                    this.referenceChannel = channel;
+                    return channel;
+                }
+                if (!this.learning) {
+                    this.startLearning(channel);
+                }
+                return null;
+            }
+        }
+        return null;
+    }
+
+    private void startLearning(final Channel channel) {
+        // The sample packets are created here, the event loop only encodes them
+        final Object expectedPacket = this.replayFactory.create(new int[] {SAMPLE_ID}, new FakeItemDisplay[] {SAMPLE_DISPLAY});
+        final Object itemPacket = this.itemFactory.create(SAMPLE_ID, SAMPLE_DISPLAY.getItemStack());
+        this.learning = true;
+        try {
+            channel.eventLoop().execute(() -> {
+                final boolean learned = this.learn(channel, expectedPacket, itemPacket);
+                synchronized (this) {
+                    if (learned) {
+                        this.learned = true;
+                        this.referenceChannel = channel;
+                    } else {
+                        this.disabled = true;
+                    }
+                    this.learning = false;
+                }
+            });
+        } catch (final RejectedExecutionException e) {
+            // The channel is shutting down, try another one next time
+            this.learning = false;
+        }
+    }
+
+    private boolean learn(final Channel channel, final Object expectedPacket, final Object itemPacket) {
+        final List<ByteBuf> expected = SharedPacketEncoder.encode(channel, expectedPacket);
+        final List<ByteBuf> item = SharedPacketEncoder.encode(channel, itemPacket);
+        if (expected == null || item == null) {
+            release(expected);
+            release(item);
+            return false;
+        }
+
+        final ByteBuf actualSpawn = channel.alloc().ioBuffer();
+        final ByteBuf actualMetadata = channel.alloc().ioBuffer();
+        try {
+            expect(expected.size() == 4 && item.size() == 1);
+            this.bundleDelimiter = ByteBufUtil.getBytes(expected.get(0));
+            expect(ByteBufUtil.equals(expected.get(0), expected.get(3)));
+
+            final byte[] sampleItem = this.learnItemLayout(item.get(0).duplicate());
+            this.learnSpawnLayout(expected.get(1).duplicate());
+            this.learnMetadataLayout(expected.get(2).duplicate(), sampleItem.length);
+            this.itemBytes.clear();
+
+            // Only trust the learned layout if it reproduces the server's encoding exactly
+            this.writeSpawn(actualSpawn, SAMPLE_ID, SAMPLE_DISPLAY);
+            this.writeItemMetadata(actualMetadata, SAMPLE_ID, SAMPLE_DISPLAY, null, sampleItem);
+            return ByteBufUtil.equals(actualSpawn, expected.get(1)) && ByteBufUtil.equals(actualMetadata, expected.get(2));
+        } catch (final RuntimeException e) {
+            return false;
+        } finally {
+            actualSpawn.release();
+            actualMetadata.release();
+            release(expected);
+            release(item);
+        }
+    }
+
+    private byte[] learnItemLayout(final ByteBuf frame) {
+        this.metadataPacketId = readVarInt(frame);
+        expect(readVarInt(frame) == SAMPLE_ID);
+        expect(frame.readUnsignedByte() == this.protocol.itemIndex());
+        this.itemSerializer = readVarInt(frame);
+        expect(frame.getUnsignedByte(frame.writerIndex() - 1) == END_OF_METADATA);
+        return ByteBufUtil.getBytes(frame, frame.readerIndex(), frame.readableBytes() - 1);
+    }
+
+    private void learnSpawnLayout(final ByteBuf frame) {
+        this.spawnPacketId = readVarInt(frame);
+        expect(readVarInt(frame) == SAMPLE_ID);
+        frame.skipBytes(Long.BYTES * 2);
+        this.entityTypeId = readVarInt(frame);
+    }
+
+    private void learnMetadataLayout(final ByteBuf frame, final int itemLength) {
+        expect(readVarInt(frame) == this.metadataPacketId);
+        expect(readVarInt(frame) == SAMPLE_ID);
+        expect(frame.readUnsignedByte() == this.protocol.translationIndex());
+        this.vectorSerializer = readVarInt(frame);
+        frame.skipBytes(Float.BYTES * 3);
+        expect(frame.readUnsignedByte() == this.protocol.scaleIndex());
+        frame.skipBytes(1 + Float.BYTES * 3);
+        expect(frame.readUnsignedByte() == this.protocol.leftRotationIndex());
+        this.quaternionSerializer = readVarInt(frame);
+        frame.skipBytes(Float.BYTES * 4);
+        expect(frame.readUnsignedByte() == this.protocol.rightRotationIndex());
+        frame.skipBytes(1 + Float.BYTES * 4);
+        expect(frame.readUnsignedByte() == this.protocol.itemIndex());
+        readVarInt(frame);
+        frame.skipBytes(itemLength);
+        expect(frame.readUnsignedByte() == this.protocol.displayTypeIndex());
+        this.byteSerializer = readVarInt(frame);
+    }
+
+    private byte[] readItem(final ByteBuf frame) {
+        expect(readVarInt(frame) == this.metadataPacketId);
+        expect(readVarInt(frame) == SAMPLE_ID);
+        expect(frame.readUnsignedByte() == this.protocol.itemIndex());
+        expect(readVarInt(frame) == this.itemSerializer);
+        expect(frame.getUnsignedByte(frame.writerIndex() - 1) == END_OF_METADATA);
+        return ByteBufUtil.getBytes(frame, frame.readerIndex(), frame.readableBytes() - 1);
+    }
+
+    /**
+     * Encode an item on the event loop of a channel and cache its bytes
+     *
+     * @param channel   The channel
+     * @param itemStack The item
+     */
+    private void encodeItem(final Channel channel, final ItemStack itemStack) {
+        // Copy the item, the given stack might get modified later
+        final ItemStack key = itemStack.clone();
+        if (!this.pendingItems.add(key)) {
+            return;
+        }
+        final Object packet = this.itemFactory.create(SAMPLE_ID, key);
+        try {
+            channel.eventLoop().execute(() -> {
+                final List<ByteBuf> frames = SharedPacketEncoder.encode(channel, packet);
+                try {
+                    if (frames != null && frames.size() == 1) {
+                        this.itemBytes.put(key, this.readItem(frames.get(0).duplicate()));
+                    }
+                } catch (final RuntimeException e) {
+                    // Unexpected layout, the item keeps using the nms packets
+                } finally {
+                    release(frames);
+                    this.pendingItems.remove(key);
+                }
+            });
+        } catch (final RejectedExecutionException e) {
+            this.pendingItems.remove(key);
+        }
+    }
+
+    private ByteBuf writeSpawn(final ByteBuf buf, final int entityId, final FakeItemDisplay itemDisplay) {
+        final UUID uuid = IdAllocator.uuidOf(entityId);
+        final Location location = itemDisplay.getLocation();
+        writeVarInt(buf, this.spawnPacketId);
+        writeVarInt(buf, entityId);
+        buf.writeLong(uuid.getMostSignificantBits());
+        buf.writeLong(uuid.getLeastSignificantBits());
+        writeVarInt(buf, this.entityTypeId);
+        buf.writeDouble(location.getBlockX());
+        buf.writeDouble(location.getBlockY());
+        buf.writeDouble(location.getBlockZ());
+        // Pitch, yaw and head yaw
+        buf.writeByte(0);
+        buf.writeByte(0);
+        buf.writeByte(0);
+        // Data
+        writeVarInt(buf, 0);
+        // Velocity
+        buf.writeShort(0);
+        buf.writeShort(0);
+        buf.writeShort(0);
+        return buf;
+    }
+
+    private ByteBuf writeMetadata(final ByteBuf buf,
+                                  final int entityId,
+                                  final FakeItemDisplay itemDisplay,
+                                  final MetadataState state,
+                                  final byte[] itemBytes) {
+        final byte[] item = state == null || state.update(4, itemDisplay.getItemStack()) ? itemBytes : null;
+        final ByteBuf result = this.writeItemMetadata(buf, entityId, itemDisplay, state, item);
+        if (result == null) {
+            buf.release();
+        }
+        return result;
+    }
+
+    private ByteBuf writeItemMetadata(final ByteBuf buf,
+                                      final int entityId,
+                                      final FakeItemDisplay itemDisplay,
+                                      final MetadataState state,
+                                      final byte[] item) {
+        final DisplayTransformation transformation = itemDisplay.getTransformation();
+        writeVarInt(buf, this.metadataPacketId);
+        writeVarInt(buf, entityId);
+        final int start = buf.writerIndex();
+        if (state == null || state.update(0, transformation.getTranslation())) {
+            this.writeVector(buf, this.protocol.translationIndex(), transformation.getTranslation());
+        }
+        if (state == null || state.update(1, transformation.getScale())) {
+            this.writeVector(buf, this.protocol.scaleIndex(), transformation.getScale());
+        }
+        if (state == null || state.update(2, transformation.getLeftRotation())) {
+            this.writeQuaternion(buf, this.protocol.leftRotationIndex(), transformation.getLeftRotation());
+        }
+        if (state == null || state.update(3, transformation.getRightRotation())) {
+            this.writeQuaternion(buf, this.protocol.rightRotationIndex(), transformation.getRightRotation());
+        }
+        if (item != null) {
+            buf.writeByte(this.protocol.itemIndex());
+            writeVarInt(buf, this.itemSerializer);
+            buf.writeBytes(item);
+        }
+        if (state == null || state.update(5, itemDisplay.getTransform())) {
+            buf.writeByte(this.protocol.displayTypeIndex());
+            writeVarInt(buf, this.byteSerializer);
+            buf.writeByte(itemDisplay.getTransform().ordinal());
+        }
+        if (buf.writerIndex() == start) {
+            return null;
+        }
+        buf.writeByte(END_OF_METADATA);
+        return buf;
+    }
+
+    private void writeVector(final ByteBuf buf, final int index, final Vector3f vector) {
+        buf.writeByte(index);
+        writeVarInt(buf, this.vectorSerializer);
+        buf.writeFloat(vector.x);
+        buf.writeFloat(vector.y);
+        buf.writeFloat(vector.z);
+    }
+
+    private void writeQuaternion(final ByteBuf buf, final int index, final Quaternionf quaternion) {
+        buf.writeByte(index);
+        writeVarInt(buf, this.quaternionSerializer);
+        buf.writeFloat(quaternion.x);
+        buf.writeFloat(quaternion.y);
+        buf.writeFloat(quaternion.z);
+        buf.writeFloat(quaternion.w);
+    }
+
+    public boolean isDisabled() {
+        return this.disabled;
+    }
+
+    /**
+     * The packets to encode
+     */
+    public enum Mode {
+        /**
+         * Spawn packets and metadata changes of new displays
+         */
+        SPAWN,
+        /**
+         * Metadata changes of existing displays
+         */
+        UPDATE,
+        /**
+         * Spawn packets and full metadata for players that did not see the displays yet
+         */
+        REPLAY
+    }
+
+    /**
+     * Creates nms packets for multiple item displays
+     */
+    @FunctionalInterface
+    public interface BulkPacketFactory {
+
+        Object create(int[] entityIds, FakeItemDisplay[] itemDisplays);
+
+    }
+
+    /**
+     * Creates an nms metadata packet that only contains the displayed item
+     */
+    @FunctionalInterface
+    public interface ItemPacketFactory {
+
+        Object create(int entityId, ItemStack itemStack);
+
+    }
+
+}
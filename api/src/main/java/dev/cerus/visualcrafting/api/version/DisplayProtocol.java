@@ -0,0 +1,23 @@
+package dev.cerus.visualcrafting.api.version;
+
+/**
+ * Describes the item display metadata of a protocol version
+ * <p>
+ * Everything else the direct display encoder needs (packet ids, the entity type id and the metadata
+ * serializer ids) is read from packets that were encoded by the server itself.
+ *
+ * @param translationIndex   Metadata index of the translation
+ * @param scaleIndex         Metadata index of the scale
+ * @param leftRotationIndex  Metadata index of the left rotation
+ * @param rightRotationIndex Metadata index of the right rotation
+ * @param itemIndex          Metadata index of the displayed item
+ * @param displayTypeIndex   Metadata index of the item display type
+ */
+public record DisplayProtocol(int translationIndex,
+                              int scaleIndex,
+                              int leftRotationIndex,
+                              int rightRotationIndex,
+                              int itemIndex,
+                              int displayTypeIndex) {
+
+}
@@ -0,0 +1,92 @@
+package dev.cerus.visualcrafting.api.version;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandler;
+import java.util.Objects;
+import java.util.function.Supplier;
+
+/**
+ * Packet frames that were encoded without the server's encoder
+ * <p>
+ * The frames can only be written to channels that use the same encoder and protocol as the channel the
+ * frames were encoded for. Every other channel gets the fallback packet instead.
+ */
+public final class EncodedPacket {
+
+    private final ByteBuf[] frames;
+    private final Class<?> encoderType;
+    private final Object protocol;
+    private final Supplier<?> fallback;
+    private Object fallbackPacket;
+
+    /**
+     * @param frames      The encoded frames, one per packet
+     * @param reference The channel the frames were encoded for
+     * @param fallback  Creates an nms packet with the same effect as the frames
+     */
+    EncodedPacket(final ByteBuf[] frames, final Channel reference, final Supplier<?> fallback) {
+        this.frames = frames;
+        this.encoderType = reference.pipeline().get(SharedPacketEncoder.ENCODER).getClass();
+        this.protocol = SharedPacketEncoder.protocolOf(reference);
+        this.fallback = fallback;
+    }
+
+    /**
+     * Check if the frames can be written to a channel
+     *
+     * @param channel The channel
+     *
+     * @return True if the channel uses the encoder and protocol the frames were encoded for
+     */
+    boolean canWriteTo(final Channel channel) {
+        final ChannelHandler encoder = channel.pipeline().get(SharedPacketEncoder.ENCODER);
+        return encoder != null && encoder.getClass() == this.encoderType
+               && Objects.equals(SharedPacketEncoder.protocolOf(channel), this.protocol);
+    }
+
+    /**
+     * Write the frames to a channel
+     *
+     * @param channel  The channel
+     * @param deferred The queue to write to, or null to flush immediately
+     */
+    void writeTo(final Channel channel, final FlushQueue deferred) {
+        for (final ByteBuf frame : this.frames) {
+            if (deferred != null) {
+                deferred.write(channel, frame.retainedDuplicate());
+            } else {
+                channel.write(frame.retainedDuplicate(), channel.voidPromise());
+            }
+        }
+        if (deferred == null) {
+            channel.flush();
+        }
+    }
+
+    /**
+     * Get the nms packet for channels that can't take the frames. The packet is only created once.
+     *
+     * @return The fallback packet
+     */
+    Object getFallback() {
+        if (this.fallbackPacket == null) {
+            this.fallbackPacket = this.fallback.get();
+        }
+        return this.fallbackPacket;
+    }
+
+    boolean isEmpty() {
+        return this.frames.length == 0;
+    }
+
+    /**
+     * Release the frames. Must be called once after the packet was sent.
+     */
+    void release() {
+        for (final ByteBuf frame : this.frames) {
+            frame.release();
+        }
+    }
+
+}
@@ -0,0 +1,80 @@
+package dev.cerus.visualcrafting.api.version;
+
+import io.netty.channel.EventLoop;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs tasks one after another in the order they were queued, each on the event loop it asks for
+ * <p>
+ * Packets that are encoded on an event loop have to be written there as well. Queueing every write of a
+ * packet sink here keeps the packets in order, no matter which event loop ends up writing them. Queueing never
+ * waits for the task to run.
+ */
+final class EncodingQueue {
+
+    private final Queue<Task> tasks = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    /**
+     * Queue a task
+     *
+     * @param eventLoop The event loop that has to run the task, or null if any thread may run it
+     * @param action    The task
+     */
+    void execute(final EventLoop eventLoop, final Runnable action) {
+        this.tasks.add(new Task(eventLoop, action));
+        if (this.scheduled.compareAndSet(false, true)) {
+            if (eventLoop == null || !this.moveTo(eventLoop)) {
+                this.run();
+            }
+        }
+    }
+
+    private boolean moveTo(final EventLoop eventLoop) {
+        try {
+            eventLoop.execute(this::run);
+            return true;
+        } catch (final RejectedExecutionException e) {
+            // Shutting down, the task has to run somewhere else
+            return false;
+        }
+    }
+
+    private void run() {
+        RuntimeException failure = null;
+        while (true) {
+            final Task task = this.tasks.peek();
+            if (task == null) {
+                this.scheduled.set(false);
+                // Queued after the last poll, but before the flag was cleared
+                if (this.tasks.isEmpty() || !this.scheduled.compareAndSet(false, true)) {
+                    break;
+                }
+                continue;
+            }
+            if (task.eventLoop() != null && !task.eventLoop().inEventLoop() && this.moveTo(task.eventLoop())) {
+                break;
+            }
+
+            this.tasks.poll();
+            try {
+                task.action().run();
+            } catch (final RuntimeException e) {
+                // A broken task must not stall every task after it
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private record Task(EventLoop eventLoop, Runnable action) {
+    }
+
+}
@@ -0,0 +1,62 @@
+package dev.cerus.visualcrafting.api.version;
+
+import dev.cerus.visualcrafting.api.util.ConcurrentIntSet;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.util.AttributeKey;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.function.BiConsumer;
+import org.bukkit.entity.Player;
+
+/**
+ * Listens for clicks on our fake entities. A single instance is shared between all channels.
+ */
+@ChannelHandler.Sharable
+public class EntityClickHandler extends ChannelDuplexHandler {
+
+    static final AttributeKey<Player> PLAYER_KEY = AttributeKey.valueOf("visualcrafting_player");
+
+    private final Class<?> packetClass;
+    private final VarHandle entityIdHandle;
+    private final ConcurrentIntSet ownedEntityIds;
+    private final BiConsumer<Player, Integer> callback;
+
+    /**
+     * @param packetClass    The nms use entity packet class
+     * @param entityIdField  The name of the packet's entity id field
+     * @param ownedEntityIds The ids of all fake entities
+     * @param callback       Callback when a player clicks one of our entities
+     */
+    EntityClickHandler(final Class<?> packetClass,
+                       final String entityIdField,
+                       final ConcurrentIntSet ownedEntityIds,
+                       final BiConsumer<Player, Integer> callback) {
+        this.packetClass = packetClass;
+        this.ownedEntityIds = ownedEntityIds;
+        this.callback = callback;
+        try {
+            this.entityIdHandle = MethodHandles.privateLookupIn(packetClass, MethodHandles.lookup())
+                    .findVarHandle(packetClass, entityIdField, int.class);
+        } catch (final NoSuchFieldException | IllegalAccessException e) {
+            throw new IllegalStateException("Unable to access entity id of " + packetClass.getName(), e);
+        }
+    }
+
+    @Override
+    public void channelRead(final ChannelHandlerContext ctx, final Object msg) throws Exception {
+        if (this.packetClass.isInstance(msg)) {
+            final int entityId = (int) this.entityIdHandle.get(msg);
+            // Clicks on real entities are by far the most common case and end here
+            if (this.ownedEntityIds.contains(entityId)) {
+                final Player player = ctx.channel().attr(PLAYER_KEY).get();
+                if (player != null) {
+                    this.callback.accept(player, entityId);
+                }
+            }
+        }
+        super.channelRead(ctx, msg);
+    }
+
+}
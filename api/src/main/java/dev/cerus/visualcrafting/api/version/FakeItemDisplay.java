@@ -1,53 +1,37 @@
 package dev.cerus.visualcrafting.api.version;
 
-import dev.cerus.visualcrafting.api.math.MatrixMath;
+import dev.cerus.visualcrafting.api.math.DisplayTransformation;
 import org.bukkit.Location;
 import org.bukkit.inventory.ItemStack;
-import org.joml.Matrix3f;
-import org.joml.Matrix4f;
+import org.joml.Matrix4fc;
 
 /**
  * A fake item display
  */
 public class FakeItemDisplay {
 
-    private static final float SCALE = 0.18f;
-
     private ItemStack itemStack;
-    private Matrix3f rotationX;
-    private Matrix3f rotationZ;
-    private Matrix4f translation;
+    private DisplayTransformation transformation;
     private Transform transform;
     private Location location;
 
     public FakeItemDisplay(final Location location,
                            final ItemStack itemStack,
-                           final Matrix3f rotationX,
-                           final Matrix3f rotationZ,
-                           final Matrix4f translation,
+                           final DisplayTransformation transformation,
                            final Transform transform) {
         this.location = location;
         this.itemStack = itemStack;
-        this.rotationX = rotationX;
-        this.rotationZ = rotationZ;
-        this.translation = translation;
+        this.transformation = transformation;
         this.transform = transform;
     }
 
     /**
-     * Create the transformation matrix for displaying an item
+     * Get the transformation matrix for displaying an item. The matrix is shared and can not be modified.
      *
      * @return the matrix
      */
-    public Matrix4f getTransformationMatrix() {
-        return MatrixMath.combine(
-                this.translation,
-                MatrixMath.combineAndExpand(
-                        this.rotationX,
-                        this.rotationZ
-                ),
-                MatrixMath.scale(SCALE, SCALE, 0.0001f)
-        );
+    public Matrix4fc getTransformationMatrix() {
+        return this.transformation.getMatrix();
     }
 
     public Location getLocation() {
@@ -66,28 +50,12 @@ public class FakeItemDisplay {
         this.itemStack = itemStack;
     }
 
-    public Matrix3f getRotationX() {
-        return this.rotationX;
-    }
-
-    public void setRotationX(final Matrix3f rotationX) {
-        this.rotationX = rotationX;
-    }
-
-    public Matrix3f getRotationZ() {
-        return this.rotationZ;
-    }
-
-    public void setRotationZ(final Matrix3f rotationZ) {
-        this.rotationZ = rotationZ;
-    }
-
-    public Matrix4f getTranslation() {
-        return this.translation;
+    public DisplayTransformation getTransformation() {
+        return this.transformation;
     }
 
-    public void setTranslation(final Matrix4f translation) {
-        this.translation = translation;
+    public void setTransformation(final DisplayTransformation transformation) {
+        this.transformation = transformation;
     }
 
     public Transform getTransform() {
@@ -1,30 +1,118 @@
 package dev.cerus.visualcrafting.api.version;
 
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
 import org.bukkit.Material;
 import org.bukkit.inventory.ItemStack;
 import org.bukkit.inventory.meta.MapMeta;
 
 /**
  * A fake map
+ * <p>
+ * Changed pixels are tracked as a dirty rectangle, so that only the changed part has to be sent.
+ * New and cleared maps are dirty as a whole, clients might still have different contents for the id.
  */
 public class FakeMap {
 
+    public static final int SIZE = 128;
+    // Shared by all maps, so that a recycled map id never repeats a version
+    private static final AtomicLong VERSIONS = new AtomicLong();
+
     private final int id;
     private final byte[] data;
     private final Object handle;
+    // Dirty rectangle, max values are exclusive. Empty if min >= max.
+    private int dirtyMinX;
+    private int dirtyMinY;
+    private int dirtyMaxX;
+    private int dirtyMaxY;
+    private volatile long version;
 
     FakeMap(final int id, Object handle) {
         this.id = id;
-        this.data = new byte[128 * 128];
+        this.data = new byte[SIZE * SIZE];
         this.handle = handle;
+        this.markFullyDirty();
     }
 
     public void setPixel(final int x, final int y, final byte color) {
-        this.data[x + y * 128] = color;
+        final int index = x + y * SIZE;
+        if (this.data[index] == color) {
+            return;
+        }
+        this.data[index] = color;
+        if (this.dirtyMinX >= this.dirtyMaxX) {
+            this.dirtyMinX = x;
+            this.dirtyMinY = y;
+            this.dirtyMaxX = x + 1;
+            this.dirtyMaxY = y + 1;
+        } else {
+            this.dirtyMinX = Math.min(this.dirtyMinX, x);
+            this.dirtyMinY = Math.min(this.dirtyMinY, y);
+            this.dirtyMaxX = Math.max(this.dirtyMaxX, x + 1);
+            this.dirtyMaxY = Math.max(this.dirtyMaxY, y + 1);
+        }
     }
 
     public byte getPixel(final int x, final int y) {
-        return this.data[x + y * 128];
+        return this.data[x + y * SIZE];
+    }
+
+    /**
+     * Reset every pixel
+     */
+    void clear() {
+        Arrays.fill(this.data, (byte) 0);
+        this.markFullyDirty();
+    }
+
+    private void markFullyDirty() {
+        this.dirtyMinX = 0;
+        this.dirtyMinY = 0;
+        this.dirtyMaxX = SIZE;
+        this.dirtyMaxY = SIZE;
+    }
+
+    /**
+     * Get the region that has changed since the last call and mark the map as clean. Every
+     * returned region starts a new content version.
+     *
+     * @return The changed region or null if nothing has changed
+     */
+    MapRegion takeDirtyRegion() {
+        if (this.dirtyMinX >= this.dirtyMaxX) {
+            return null;
+        }
+        final MapRegion region = this.dirtyMinX == 0 && this.dirtyMinY == 0 && this.dirtyMaxX == SIZE && this.dirtyMaxY == SIZE
+                ? MapRegion.FULL
+                : new MapRegion(this.dirtyMinX, this.dirtyMinY, this.dirtyMaxX - this.dirtyMinX, this.dirtyMaxY - this.dirtyMinY);
+        this.dirtyMaxX = this.dirtyMinX;
+        this.version = VERSIONS.incrementAndGet();
+        return region;
+    }
+
+    /**
+     * Get the content version, which changes every time a dirty region is taken
+     *
+     * @return The version
+     */
+    long getVersion() {
+        return this.version;
+    }
+
+    /**
+     * Copy the pixels of a region
+     *
+     * @param region The region
+     *
+     * @return The pixels of the region, row by row
+     */
+    byte[] copyRegion(final MapRegion region) {
+        final byte[] copy = new byte[region.width() * region.height()];
+        for (int row = 0; row < region.height(); row++) {
+            System.arraycopy(this.data, region.x() + (region.y() + row) * SIZE, copy, row * region.width(), region.width());
+        }
+        return copy;
     }
 
     public ItemStack toItem() {
@@ -0,0 +1,42 @@
+package dev.cerus.visualcrafting.api.version;
+
+import io.netty.channel.Channel;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Writes packets without flushing and remembers the touched channels, so that every
+ * channel only needs to be flushed once per tick
+ */
+public class FlushQueue {
+
+    private final Set<Channel> pendingChannels = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Write a packet to a channel without flushing it
+     *
+     * @param channel The channel
+     * @param packet  The packet
+     */
+    public void write(final Channel channel, final Object packet) {
+        channel.write(packet, channel.voidPromise());
+        // Register after writing: a concurrent flush may otherwise miss this write until the next tick
+        this.pendingChannels.add(channel);
+    }
+
+    /**
+     * Flush every channel that was written to since the last flush
+     */
+    public void flush() {
+        final Iterator<Channel> iterator = this.pendingChannels.iterator();
+        while (iterator.hasNext()) {
+            final Channel channel = iterator.next();
+            iterator.remove();
+            if (channel.isActive()) {
+                channel.flush();
+            }
+        }
+    }
+
+}
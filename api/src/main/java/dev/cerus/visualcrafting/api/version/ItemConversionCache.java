@@ -0,0 +1,119 @@
+package dev.cerus.visualcrafting.api.version;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import org.bukkit.inventory.ItemStack;
+
+/**
+ * Bounded least-recently-used cache for converted item stacks
+ * <p>
+ * Items are looked up by type, amount and meta. The converted values are shared between
+ * all callers and must not be modified. Caches without a converter are filled with {@link #put(ItemStack, Object)}.
+ *
+ * @param <T> The converted item type
+ */
+public class ItemConversionCache<T> {
+
+    private final Map<ItemStack, T> cache;
+    private final Function<ItemStack, T> converter;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param maxSize The maximum amount of cached items
+     */
+    public ItemConversionCache(final int maxSize) {
+        this(maxSize, null);
+    }
+
+    public ItemConversionCache(final int maxSize, final Function<ItemStack, T> converter) {
+        this.converter = converter;
+        this.cache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<ItemStack, T> eldest) {
+                return this.size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * Get the converted value of an item stack, converting it if it is not cached yet
+     *
+     * @param itemStack The item stack
+     *
+     * @return The converted item
+     */
+    public T convert(final ItemStack itemStack) {
+        if (this.converter == null) {
+            throw new IllegalStateException("No converter");
+        }
+        if (itemStack == null) {
+            return this.converter.apply(null);
+        }
+
+        // ItemStack#hashCode covers type, amount and meta, ItemStack#equals compares them exactly
+        synchronized (this.cache) {
+            final T cached = this.cache.get(itemStack);
+            if (cached != null) {
+                this.hits.increment();
+                return cached;
+            }
+        }
+
+        this.misses.increment();
+        final T converted = this.converter.apply(itemStack);
+        synchronized (this.cache) {
+            // Store a copy, the given stack might get modified later
+            this.cache.put(itemStack.clone(), converted);
+        }
+        return converted;
+    }
+
+    /**
+     * Get the converted value of an item stack without converting it
+     *
+     * @param itemStack The item stack
+     *
+     * @return The converted item or null if it is not cached
+     */
+    public T getCached(final ItemStack itemStack) {
+        final T cached;
+        synchronized (this.cache) {
+            cached = this.cache.get(itemStack);
+        }
+        (cached == null ? this.misses : this.hits).increment();
+        return cached;
+    }
+
+    /**
+     * Cache the converted value of an item stack
+     *
+     * @param itemStack The item stack, must not be modified afterwards
+     * @param converted The converted value
+     */
+    public void put(final ItemStack itemStack, final T converted) {
+        synchronized (this.cache) {
+            this.cache.put(itemStack, converted);
+        }
+    }
+
+    /**
+     * Remove all cached items
+     */
+    public void clear() {
+        synchronized (this.cache) {
+            this.cache.clear();
+        }
+    }
+
+    public long getHits() {
+        return this.hits.sum();
+    }
+
+    public long getMisses() {
+        return this.misses.sum();
+    }
+
+}
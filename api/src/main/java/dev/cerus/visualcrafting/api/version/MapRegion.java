@@ -0,0 +1,22 @@
+package dev.cerus.visualcrafting.api.version;
+
+/**
+ * A rectangular part of a map
+ *
+ * @param x      The left edge
+ * @param y      The top edge
+ * @param width  The width in pixels
+ * @param height The height in pixels
+ */
+public record MapRegion(int x, int y, int width, int height) {
+
+    /**
+     * The whole map
+     */
+    public static final MapRegion FULL = new MapRegion(0, 0, FakeMap.SIZE, FakeMap.SIZE);
+
+    public boolean isFull() {
+        return this.width == FakeMap.SIZE && this.height == FakeMap.SIZE;
+    }
+
+}
@@ -0,0 +1,52 @@
+package dev.cerus.visualcrafting.api.version;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import org.bukkit.entity.Player;
+
+/**
+ * Remembers which content version of every fake map each player's client currently has
+ */
+class MapVersions {
+
+    static final long UNKNOWN = -1;
+
+    private final Map<UUID, Map<Integer, Long>> versions = new ConcurrentHashMap<>();
+
+    /**
+     * Remember that a player has received a version of a map
+     *
+     * @param player  The player
+     * @param mapId   The map's id
+     * @param version The version the player has now
+     *
+     * @return The version the player had before or {@link #UNKNOWN}
+     */
+    long swap(final Player player, final int mapId, final long version) {
+        final Long previous = this.versions.computeIfAbsent(player.getUniqueId(), uuid -> new ConcurrentHashMap<>())
+                .put(mapId, version);
+        return previous == null ? UNKNOWN : previous;
+    }
+
+    /**
+     * Forget every map of a player, e.g. because the client has dropped them
+     *
+     * @param playerId The player's uuid
+     */
+    void forgetPlayer(final UUID playerId) {
+        this.versions.remove(playerId);
+    }
+
+    /**
+     * Forget a map for every player
+     *
+     * @param mapId The map's id
+     */
+    void forgetMap(final int mapId) {
+        for (final Map<Integer, Long> playerVersions : this.versions.values()) {
+            playerVersions.remove(mapId);
+        }
+    }
+
+}
@@ -0,0 +1,42 @@
+package dev.cerus.visualcrafting.api.version;
+
+import java.util.Arrays;
+import java.util.Objects;
+import org.bukkit.inventory.ItemStack;
+
+/**
+ * The last metadata values that were sent for a fake entity
+ */
+public class MetadataState {
+
+    private final Object[] values;
+
+    MetadataState(final int size) {
+        this.values = new Object[size];
+    }
+
+    /**
+     * Compare a value against the last sent value of a metadata slot and remember it
+     *
+     * @param slot  The slot
+     * @param value The value that is about to be sent
+     *
+     * @return True if the value differs from the last sent value and has to be sent
+     */
+    public boolean update(final int slot, final Object value) {
+        if (Objects.equals(this.values[slot], value)) {
+            return false;
+        }
+        // Item stacks are mutable, so we need our own copy
+        this.values[slot] = value instanceof final ItemStack itemStack ? itemStack.clone() : value;
+        return true;
+    }
+
+    /**
+     * Forget all remembered values. The next update will send every value again.
+     */
+    public void reset() {
+        Arrays.fill(this.values, null);
+    }
+
+}
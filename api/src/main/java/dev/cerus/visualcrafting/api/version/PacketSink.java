@@ -0,0 +1,648 @@
+package dev.cerus.visualcrafting.api.version;
+
+import dev.cerus.visualcrafting.api.config.Config;
+import io.netty.channel.Channel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import org.bukkit.entity.Player;
+
+/**
+ * Delivers the packets built by a version adapter to their audience
+ * <p>
+ * Recipient resolution, flushing and accounting happen here, so that adapters only have to build packets.
+ * <p>
+ * State packets (e.g. metadata updates) are not written to channels that are not writable. Instead, only
+ * the latest state of every entity or map is kept and sent once the channel has drained. This bounds the
+ * outbound buffer of slow connections by the amount of entities instead of the amount of updates.
+ * <p>
+ * With shared encoding, packets are encoded on the event loop of one of the receiving channels. The calling
+ * thread only queues the writes, and every write goes through the same queue so that packets stay in order.
+ */
+public class PacketSink {
+
+    private static final long MAP_KEY_FLAG = 1L << 32;
+
+    private final Function<Player, Channel> channelResolver;
+    private final BiConsumer<Player, Object> directSender;
+    private final FlushQueue flushQueue = new FlushQueue();
+    private final SharedPacketEncoder sharedPacketEncoder = new SharedPacketEncoder();
+    private final EncodingQueue encodingQueue = new EncodingQueue();
+    private final Runnable flushTask = this.flushQueue::flush;
+    private final LongAdder sentPackets = new LongAdder();
+    private final LongAdder writes = new LongAdder();
+    private final LongAdder sharedWrites = new LongAdder();
+    private final LongAdder coalescedWrites = new LongAdder();
+    private final LongAdder encodedWrites = new LongAdder();
+    private final Map<Channel, Backlog> backlog = new ConcurrentHashMap<>();
+    private boolean deferFlush;
+    private boolean sharedEncoding;
+
+    /**
+     * @param channelResolver Resolves the network channel of a player
+     * @param directSender    Sends a packet to a player the regular way
+     */
+    PacketSink(final Function<Player, Channel> channelResolver, final BiConsumer<Player, Object> directSender) {
+        this.channelResolver = channelResolver;
+        this.directSender = directSender;
+    }
+
+    /**
+     * Get the state key of a fake entity
+     *
+     * @param entityId The entity's id
+     *
+     * @return The state key
+     */
+    public static long entityKey(final int entityId) {
+        return entityId & 0xFFFFFFFFL;
+    }
+
+    /**
+     * Get the state key of a fake map
+     *
+     * @param mapId The map's id
+     *
+     * @return The state key
+     */
+    public static long mapKey(final int mapId) {
+        return MAP_KEY_FLAG | (mapId & 0xFFFFFFFFL);
+    }
+
+    private static boolean isEmpty(final Object packet) {
+        return packet instanceof final EncodedPacket encodedPacket && encodedPacket.isEmpty();
+    }
+
+    private static void release(final Object packet) {
+        if (packet instanceof final EncodedPacket encodedPacket) {
+            encodedPacket.release();
+        }
+    }
+
+    /**
+     * Apply the sending options of the config
+     *
+     * @param config The plugin config
+     */
+    void configure(final Config config) {
+        this.deferFlush = config.deferPacketFlush();
+        this.sharedEncoding = config.sharedPacketEncoding();
+    }
+
+    /**
+     * Send a packet to every player of an audience
+     *
+     * @param audience The receiving players
+     * @param packet   The nms packet or an encoded packet, which is released afterwards
+     */
+    public void send(final Audience audience, final Object packet) {
+        final List<? extends Player> players = this.recipientsOf(audience, packet);
+        if (players != null) {
+            this.sendTo(players, packet);
+        }
+    }
+
+    /**
+     * Send a state packet to every player of an audience. Players whose channel is not writable
+     * will receive the latest state once their channel has drained instead.
+     *
+     * @param audience    The receiving players
+     * @param packet      The nms packet or an encoded packet, may only contain the changes since the last state packet
+     * @param stateKey    The key of the entity or map, see {@link #entityKey(int)} and {@link #mapKey(int)}
+     * @param latestState Creates an nms packet that contains the full latest state
+     */
+    public void sendState(final Audience audience, final Object packet, final long stateKey, final Supplier<?> latestState) {
+        final List<? extends Player> players = this.recipientsOf(audience, packet);
+        if (players != null) {
+            this.sendStateTo(players, packet, this.isAnyHeldBack(players, packet) ? new KeyState(stateKey, latestState) : null);
+        }
+    }
+
+    /**
+     * Send a state packet of a single entity to every player of an audience, see
+     * {@link #sendEntityStates(Audience, Object, int[], Object[], StateFactory)}
+     *
+     * @param audience    The receiving players
+     * @param packet      The nms packet or an encoded packet, may only contain the changes since the last state packet
+     * @param entityId    The id of the entity
+     * @param entity      The entity
+     * @param latestState Creates the supplier of the full latest state of the entity
+     * @param <T>         The entity type
+     */
+    public <T> void sendEntityState(final Audience audience,
+                                    final Object packet,
+                                    final int entityId,
+                                    final T entity,
+                                    final StateFactory<? super T> latestState) {
+        final List<? extends Player> players = this.recipientsOf(audience, packet);
+        if (players != null) {
+            this.sendStateTo(players, packet, this.isAnyHeldBack(players, packet) ? new EntityState<>(entityId, entity, latestState) : null);
+        }
+    }
+
+    /**
+     * Send a state packet that covers several entities to every player of an audience. The state
+     * of every entity is held back separately for players whose channel is not writable.
+     *
+     * @param audience     The receiving players
+     * @param packet       The nms packet or an encoded packet, may only contain the changes since the last state packet
+     * @param entityIds    The ids of the entities
+     * @param entities     The entities, in the same order as the ids
+     * @param latestStates Creates the supplier of the full latest state of an entity. Only called while
+     *                     this method runs and only if a player is held back.
+     * @param <T>          The entity type
+     */
+    public <T> void sendEntityStates(final Audience audience,
+                                     final Object packet,
+                                     final int[] entityIds,
+                                     final T[] entities,
+                                     final StateFactory<? super T> latestStates) {
+        final List<? extends Player> players = this.recipientsOf(audience, packet);
+        if (players != null) {
+            this.sendStateTo(players, packet, this.isAnyHeldBack(players, packet) ? new EntityStates<>(entityIds, entities, latestStates) : null);
+        }
+    }
+
+    /**
+     * Resolve the players that a packet is sent to
+     *
+     * @param audience The receiving players
+     * @param packet   The nms packet or an encoded packet
+     *
+     * @return The players or null if there is nothing to send, the packet is released then
+     */
+    private List<? extends Player> recipientsOf(final Audience audience, final Object packet) {
+        final Collection<? extends Player> players;
+        try {
+            players = audience.getPlayers();
+        } catch (final RuntimeException e) {
+            release(packet);
+            throw e;
+        }
+        if (players.isEmpty() || isEmpty(packet)) {
+            release(packet);
+            return null;
+        }
+        this.sentPackets.increment();
+        // Indexed loops don't need an iterator for every packet
+        return players instanceof final List<? extends Player> list && players instanceof RandomAccess
+                ? list
+                : new ArrayList<>(players);
+    }
+
+    /**
+     * Check if state packets have to be held back for any of the players. The state of a packet is
+     * only collected then.
+     */
+    private boolean isAnyHeldBack(final List<? extends Player> players, final Object packet) {
+        try {
+            for (int i = 0; i < players.size(); i++) {
+                final Channel channel = this.channelResolver.apply(players.get(i));
+                if (!channel.isWritable() || this.backlog.containsKey(channel)) {
+                    return true;
+                }
+            }
+            return false;
+        } catch (final RuntimeException e) {
+            release(packet);
+            throw e;
+        }
+    }
+
+    /**
+     * Send a state packet to players that are not held back
+     *
+     * @param players The players
+     * @param packet  The nms packet or an encoded packet
+     * @param states  The state of the packet or null if no player is held back
+     */
+    private void sendStateTo(final List<? extends Player> players, final Object packet, final States states) {
+        if (states == null) {
+            this.sendTo(players, packet);
+            return;
+        }
+
+        List<Player> recipients = null;
+        try {
+            for (int i = 0; i < players.size(); i++) {
+                final Player player = players.get(i);
+                if (this.coalesce(player, states)) {
+                    if (recipients == null) {
+                        // First backlogged player, copy everyone before them
+                        recipients = new ArrayList<>(players.subList(0, i));
+                    }
+                } else if (recipients != null) {
+                    recipients.add(player);
+                }
+            }
+        } catch (final RuntimeException e) {
+            release(packet);
+            throw e;
+        }
+        this.sendTo(recipients == null ? players : recipients, packet);
+    }
+
+    private boolean coalesce(final Player player, final States states) {
+        final Channel channel = this.channelResolver.apply(player);
+        Backlog pending = this.backlog.get(channel);
+        // Keep coalescing while older state is pending, the new packet might only contain changes
+        if (channel.isWritable() && (pending == null || !states.isAnyPending(pending.states))) {
+            return false;
+        }
+        if (pending == null) {
+            pending = this.backlog.computeIfAbsent(channel, c -> new Backlog(player));
+        }
+        states.putInto(pending.states);
+        if (this.backlog.get(channel) != pending) {
+            // Drained concurrently, make sure the state is not lost. Sending it twice is harmless.
+            this.backlog.merge(channel, pending, (current, added) -> {
+                current.states.putAll(added.states);
+                return current;
+            });
+        }
+        this.coalescedWrites.increment();
+        return true;
+    }
+
+    /**
+     * Write a packet to players
+     *
+     * @param players The players
+     * @param packet  The nms packet or an encoded packet, which is released once it was written
+     */
+    private void sendTo(final List<? extends Player> players, final Object packet) {
+        if (!this.sharedEncoding) {
+            try {
+                for (int i = 0; i < players.size(); i++) {
+                    this.write(players.get(i), packet);
+                }
+            } finally {
+                release(packet);
+            }
+            return;
+        }
+
+        final Player[] recipients = players.toArray(new Player[0]);
+        final Channel[] channels = new Channel[recipients.length];
+        final Object[] packets = new Object[recipients.length];
+        try {
+            for (int i = 0; i < recipients.length; i++) {
+                channels[i] = this.channelResolver.apply(recipients[i]);
+                // Fallbacks are built from the current state of the displays, they can't be created later
+                packets[i] = packet instanceof final EncodedPacket encodedPacket && !encodedPacket.canWriteTo(channels[i])
+                        ? encodedPacket.getFallback()
+                        : packet;
+            }
+        } catch (final RuntimeException e) {
+            release(packet);
+            throw e;
+        }
+
+        // Directly encoded packets are already shared
+        final Channel reference = recipients.length > 1 && !(packet instanceof EncodedPacket)
+                ? SharedPacketEncoder.findReference(channels, packet)
+                : null;
+        this.encodingQueue.execute(reference == null ? null : reference.eventLoop(), () -> {
+            try {
+                this.writeShared(reference, recipients, channels, packets);
+            } finally {
+                release(packet);
+            }
+        });
+    }
+
+    private void writeShared(final Channel reference, final Player[] players, final Channel[] channels, final Object[] packets) {
+        if (reference == null) {
+            for (int i = 0; i < players.length; i++) {
+                this.write(players[i], channels[i], packets[i]);
+            }
+            return;
+        }
+
+        // Every channel got the same nms packet
+        final List<Channel> remaining = this.sharedPacketEncoder.broadcast(reference, channels, packets[0], this.deferFlush ? this.flushQueue : null);
+        this.sharedWrites.add(channels.length - remaining.size());
+        for (int i = 0; i < players.length; i++) {
+            if (remaining.contains(channels[i])) {
+                this.write(players[i], channels[i], packets[i]);
+            }
+        }
+    }
+
+    /**
+     * Write a packet to a player whose channel is already known
+     *
+     * @param player  The player
+     * @param channel The channel of the player
+     * @param packet  The nms packet or an encoded packet the channel can take
+     */
+    private void write(final Player player, final Channel channel, final Object packet) {
+        if (packet instanceof final EncodedPacket encodedPacket) {
+            this.encodedWrites.increment();
+            encodedPacket.writeTo(channel, this.deferFlush ? this.flushQueue : null);
+            return;
+        }
+
+        this.writes.increment();
+        if (this.deferFlush) {
+            this.flushQueue.write(channel, packet);
+        } else {
+            this.directSender.accept(player, packet);
+        }
+    }
+
+    private void write(final Player player, final Object packet) {
+        if (packet instanceof final EncodedPacket encodedPacket) {
+            final Channel channel = this.channelResolver.apply(player);
+            if (encodedPacket.canWriteTo(channel)) {
+                this.encodedWrites.increment();
+                encodedPacket.writeTo(channel, this.deferFlush ? this.flushQueue : null);
+                return;
+            }
+            this.write(player, encodedPacket.getFallback());
+            return;
+        }
+
+        this.writes.increment();
+        if (this.deferFlush) {
+            this.flushQueue.write(this.channelResolver.apply(player), packet);
+        } else {
+            this.directSender.accept(player, packet);
+        }
+    }
+
+    /**
+     * Forget the pending state of an entity or map, e.g. because it was removed
+     *
+     * @param stateKey The state key
+     */
+    public void discardState(final long stateKey) {
+        for (final Backlog pending : this.backlog.values()) {
+            pending.states.remove(stateKey);
+        }
+    }
+
+    /**
+     * Forget the pending state of entities or maps for some players only, e.g. because they no longer see them
+     *
+     * @param audience  The players
+     * @param stateKeys The state keys
+     */
+    public void discardState(final Audience audience, final long... stateKeys) {
+        for (final Player player : audience.getPlayers()) {
+            final Backlog pending = this.backlog.get(this.channelResolver.apply(player));
+            if (pending == null) {
+                continue;
+            }
+            for (final long stateKey : stateKeys) {
+                pending.states.remove(stateKey);
+            }
+        }
+    }
+
+    /**
+     * Send the latest state to drained channels and flush all channels that received deferred
+     * packets. Should be called once per tick.
+     */
+    public void flush() {
+        this.drain();
+        if (this.sharedEncoding) {
+            // After the queued writes
+            this.encodingQueue.execute(null, this.flushTask);
+        } else {
+            this.flushQueue.flush();
+        }
+    }
+
+    private void drain() {
+        final Iterator<Map.Entry<Channel, Backlog>> iterator = this.backlog.entrySet().iterator();
+        while (iterator.hasNext()) {
+            final Map.Entry<Channel, Backlog> entry = iterator.next();
+            final Channel channel = entry.getKey();
+            if (!channel.isActive()) {
+                iterator.remove();
+                continue;
+            }
+            if (!channel.isWritable()) {
+                continue;
+            }
+
+            iterator.remove();
+            final Backlog pending = entry.getValue();
+            final List<Supplier<?>> states;
+            synchronized (pending.states) {
+                states = new ArrayList<>(pending.states.values());
+            }
+            // Same path as every other packet, deferred writes are flushed right after draining
+            for (final Supplier<?> state : states) {
+                final Object packet = state.get();
+                if (packet != null) {
+                    this.sendTo(List.of(pending.player), packet);
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the amount of packets that were handed to this sink
+     *
+     * @return The amount of packets
+     */
+    public long getSentPackets() {
+        return this.sentPackets.sum();
+    }
+
+    /**
+     * Get the amount of packets that were written to a single player as nms packet
+     *
+     * @return The amount of writes
+     */
+    public long getWrites() {
+        return this.writes.sum();
+    }
+
+    /**
+     * Get the amount of packets that were written to a single player as shared pre-encoded bytes
+     *
+     * @return The amount of writes
+     */
+    public long getSharedWrites() {
+        return this.sharedWrites.sum();
+    }
+
+    /**
+     * Get the amount of packets that were written to a single player as directly encoded bytes
+     *
+     * @return The amount of writes
+     */
+    public long getEncodedWrites() {
+        return this.encodedWrites.sum();
+    }
+
+    /**
+     * Get the amount of state packets that were held back because the receiving channel was not writable
+     *
+     * @return The amount of held back packets
+     */
+    public long getCoalescedWrites() {
+        return this.coalescedWrites.sum();
+    }
+
+    /**
+     * The held back state of a channel
+     */
+    private static final class Backlog {
+
+        private final Player player;
+        private final Map<Long, Supplier<?>> states = Collections.synchronizedMap(new LinkedHashMap<>());
+
+        private Backlog(final Player player) {
+            this.player = player;
+        }
+
+    }
+
+    /**
+     * Creates the supplier of the full latest state of an entity
+     *
+     * @param <T> The entity type
+     */
+    @FunctionalInterface
+    public interface StateFactory<T> {
+
+        Supplier<?> create(int entityId, T entity);
+
+    }
+
+    /**
+     * The keys of a state packet, the suppliers of their latest state are only created once a player is held back
+     */
+    private abstract static class States {
+
+        private Supplier<?>[] latest;
+
+        abstract int size();
+
+        abstract long key(int index);
+
+        abstract Supplier<?> createLatest(int index);
+
+        private boolean isAnyPending(final Map<Long, Supplier<?>> pending) {
+            for (int i = 0; i < this.size(); i++) {
+                if (pending.containsKey(this.key(i))) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private void putInto(final Map<Long, Supplier<?>> pending) {
+            if (this.latest == null) {
+                this.latest = new Supplier<?>[this.size()];
+                for (int i = 0; i < this.latest.length; i++) {
+                    this.latest[i] = this.createLatest(i);
+                }
+            }
+            for (int i = 0; i < this.latest.length; i++) {
+                pending.put(this.key(i), this.latest[i]);
+            }
+        }
+
+    }
+
+    private static final class KeyState extends States {
+
+        private final long key;
+        private final Supplier<?> latestState;
+
+        private KeyState(final long key, final Supplier<?> latestState) {
+            this.key = key;
+            this.latestState = latestState;
+        }
+
+        @Override
+        int size() {
+            return 1;
+        }
+
+        @Override
+        long key(final int index) {
+            return this.key;
+        }
+
+        @Override
+        Supplier<?> createLatest(final int index) {
+            return this.latestState;
+        }
+
+    }
+
+    private static final class EntityState<T> extends States {
+
+        private final int entityId;
+        private final T entity;
+        private final StateFactory<? super T> factory;
+
+        private EntityState(final int entityId, final T entity, final StateFactory<? super T> factory) {
+            this.entityId = entityId;
+            this.entity = entity;
+            this.factory = factory;
+        }
+
+        @Override
+        int size() {
+            return 1;
+        }
+
+        @Override
+        long key(final int index) {
+            return entityKey(this.entityId);
+        }
+
+        @Override
+        Supplier<?> createLatest(final int index) {
+            return this.factory.create(this.entityId, this.entity);
+        }
+
+    }
+
+    private static final class EntityStates<T> extends States {
+
+        private final int[] entityIds;
+        private final T[] entities;
+        private final StateFactory<? super T> factory;
+
+        private EntityStates(final int[] entityIds, final T[] entities, final StateFactory<? super T> factory) {
+            this.entityIds = entityIds;
+            this.entities = entities;
+            this.factory = factory;
+        }
+
+        @Override
+        int size() {
+            return this.entityIds.length;
+        }
+
+        @Override
+        long key(final int index) {
+            return entityKey(this.entityIds[index]);
+        }
+
+        @Override
+        Supplier<?> createLatest(final int index) {
+            return this.factory.create(this.entityIds[index], this.entities[index]);
+        }
+
+    }
+
+}
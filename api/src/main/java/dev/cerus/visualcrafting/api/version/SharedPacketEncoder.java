@@ -0,0 +1,255 @@
+package dev.cerus.visualcrafting.api.version;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPipeline;
+import io.netty.handler.codec.MessageToByteEncoder;
+import io.netty.handler.codec.MessageToMessageEncoder;
+import io.netty.util.AttributeKey;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Serializes a packet once with the server's own encoder and writes the serialized bytes
+ * to many channels.
+ * <p>
+ * The bytes are written as raw buffers from the tail of the pipeline. Every handler that
+ * works on bytes (protocol translators, compression, framing, encryption) still runs for
+ * every channel, so per-connection compression thresholds and encryption are respected.
+ * <p>
+ * The server's encoder is not thread safe, so packets are only encoded on the event loop of the
+ * reference channel. Callers queue the broadcast there instead of waiting for it. Encoded bytes are only
+ * shared with channels in the same protocol phase, e.g. players that are being reconfigured don't get play packets.
+ */
+public class SharedPacketEncoder {
+
+    static final String ENCODER = "encoder";
+    private static final String UNBUNDLER = "unbundler";
+    // Up to 1.20.4 the protocol of a connection is stored in a channel attribute
+    private static final String[] PROTOCOL_ATTRIBUTES = {"clientbound_protocol", "protocol"};
+
+    private static final ClassValue<Field[]> INSTANCE_FIELDS = new ClassValue<>() {
+        @Override
+        protected Field[] computeValue(final Class<?> type) {
+            return instanceFields(type);
+        }
+    };
+
+    private static final Method ENCODE_BYTES;
+    private static final Method ENCODE_MESSAGES;
+
+    static {
+        Method encodeBytes;
+        Method encodeMessages;
+        try {
+            encodeBytes = MessageToByteEncoder.class.getDeclaredMethod("encode", ChannelHandlerContext.class, Object.class, ByteBuf.class);
+            encodeBytes.setAccessible(true);
+            encodeMessages = MessageToMessageEncoder.class.getDeclaredMethod("encode", ChannelHandlerContext.class, Object.class, List.class);
+            encodeMessages.setAccessible(true);
+        } catch (final NoSuchMethodException | RuntimeException e) {
+            encodeBytes = null;
+            encodeMessages = null;
+        }
+        ENCODE_BYTES = encodeBytes;
+        ENCODE_MESSAGES = encodeMessages;
+    }
+
+    /**
+     * Find a channel whose encoder can encode a packet for other channels
+     *
+     * @param channels The channels
+     * @param packet   The nms packet
+     *
+     * @return The first channel with the server's own encoder or null if there is none
+     */
+    static Channel findReference(final Channel[] channels, final Object packet) {
+        for (final Channel channel : channels) {
+            if (isServerEncoder(channel.pipeline().get(ENCODER), packet.getClass())) {
+                return channel;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Encode a packet once with the encoder of a reference channel and write it to every given channel.
+     * Has to be called on the event loop of the reference channel.
+     * <p>
+     * Channels that can not share the encoded packet are not written to and are returned
+     * instead, the caller has to send the packet to them the regular way.
+     *
+     * @param reference The channel to encode with, see {@link #findReference(Channel[], Object)}
+     * @param channels  The channels
+     * @param packet    The nms packet
+     * @param deferred  The queue to write to, or null to flush immediately
+     *
+     * @return The channels that were not written to
+     */
+    public List<Channel> broadcast(final Channel reference, final Channel[] channels, final Object packet, final FlushQueue deferred) {
+        final List<ByteBuf> frames = encode(reference, packet);
+        if (frames == null) {
+            return Arrays.asList(channels);
+        }
+
+        final List<Channel> remaining = new ArrayList<>();
+        final Class<?> encoderType = reference.pipeline().get(ENCODER).getClass();
+        final Object protocol = protocolOf(reference);
+        for (final Channel channel : channels) {
+            final ChannelHandler encoder = channel.pipeline().get(ENCODER);
+            if (encoder == null || encoder.getClass() != encoderType || !Objects.equals(protocolOf(channel), protocol)) {
+                remaining.add(channel);
+                continue;
+            }
+            this.write(channel, frames, deferred);
+        }
+        frames.forEach(ByteBuf::release);
+        return remaining;
+    }
+
+    private void write(final Channel channel, final List<ByteBuf> frames, final FlushQueue deferred) {
+        for (final ByteBuf frame : frames) {
+            if (deferred != null) {
+                deferred.write(channel, frame.retainedDuplicate());
+            } else {
+                channel.write(frame.retainedDuplicate(), channel.voidPromise());
+            }
+        }
+        if (deferred == null) {
+            channel.flush();
+        }
+    }
+
+    /**
+     * Encode a packet with the encoder of a channel. Has to be called on the event loop of the channel.
+     *
+     * @param channel The channel
+     * @param packet  The nms packet
+     *
+     * @return The encoded frames, one for every part of a bundle, or null if the packet could not be encoded
+     */
+    static List<ByteBuf> encode(final Channel channel, final Object packet) {
+        if (!channel.eventLoop().inEventLoop()) {
+            // The encoder is not thread safe
+            return null;
+        }
+        return encode(channel.pipeline(), packet);
+    }
+
+    private static List<ByteBuf> encode(final ChannelPipeline pipeline, final Object packet) {
+        if (ENCODE_BYTES == null) {
+            return null;
+        }
+
+        final List<ByteBuf> frames = new ArrayList<>();
+        try {
+            final List<Object> packets = new ArrayList<>();
+            final ChannelHandler unbundler = pipeline.get(UNBUNDLER);
+            if (unbundler instanceof MessageToMessageEncoder<?>) {
+                // Bundles are split into their parts right before they get encoded
+                ENCODE_MESSAGES.invoke(unbundler, pipeline.context(unbundler), packet, packets);
+            } else {
+                packets.add(packet);
+            }
+
+            final ChannelHandler encoder = pipeline.get(ENCODER);
+            final ChannelHandlerContext encoderCtx = Objects.requireNonNull(pipeline.context(encoder));
+            for (final Object part : packets) {
+                final ByteBuf frame = encoderCtx.alloc().ioBuffer();
+                frames.add(frame);
+                ENCODE_BYTES.invoke(encoder, encoderCtx, part, frame);
+            }
+            return frames;
+        } catch (final ReflectiveOperationException | RuntimeException e) {
+            frames.forEach(ByteBuf::release);
+            return null;
+        }
+    }
+
+    /**
+     * Check if a packet encoder is the server's own encoder
+     *
+     * @param encoder    The encoder
+     * @param packetType The type of an nms packet
+     *
+     * @return True if the encoder belongs to the server
+     */
+    static boolean isServerEncoder(final ChannelHandler encoder, final Class<?> packetType) {
+        // Plugins that replace the encoder (e.g. protocol translators) would produce bytes for a
+        // specific connection, so only the server's own encoder can be shared
+        return encoder instanceof MessageToByteEncoder<?>
+               && encoder.getClass().getClassLoader() == packetType.getClassLoader();
+    }
+
+    /**
+     * Find the protocol phase (handshake, login, configuration, play...) a channel is encoding for
+     *
+     * @param channel The channel
+     *
+     * @return The protocol or null if it could not be determined
+     */
+    static Object protocolOf(final Channel channel) {
+        for (final String name : PROTOCOL_ATTRIBUTES) {
+            if (AttributeKey.exists(name)) {
+                final Object protocol = channel.attr(AttributeKey.valueOf(name)).get();
+                if (protocol != null) {
+                    // Either the protocol itself or the codec of the protocol
+                    return findEnum(protocol, 1);
+                }
+            }
+        }
+        // Newer versions replace the encoder whenever the protocol changes, the encoder knows its protocol
+        return findEnum(channel.pipeline().get(ENCODER), 2);
+    }
+
+    private static Enum<?> findEnum(final Object object, final int depth) {
+        if (object instanceof Enum<?>) {
+            return (Enum<?>) object;
+        }
+        if (object == null || depth == 0) {
+            return null;
+        }
+        for (final Field field : INSTANCE_FIELDS.get(object.getClass())) {
+            try {
+                final Enum<?> found = findEnum(field.get(object), depth - 1);
+                if (found != null) {
+                    return found;
+                }
+            } catch (final IllegalAccessException e) {
+                // Skip the field
+            }
+        }
+        return null;
+    }
+
+    private static Field[] instanceFields(final Class<?> type) {
+        final List<Field> fields = new ArrayList<>();
+        // The server's own fields come first, library classes are never searched
+        for (Class<?> current = type; current != null && !isLibraryClass(current); current = current.getSuperclass()) {
+            for (final Field field : current.getDeclaredFields()) {
+                if (Modifier.isStatic(field.getModifiers()) || field.getType().isPrimitive()) {
+                    continue;
+                }
+                try {
+                    field.setAccessible(true);
+                    fields.add(field);
+                } catch (final RuntimeException e) {
+                    // Skip the field
+                }
+            }
+        }
+        return fields.toArray(new Field[0]);
+    }
+
+    private static boolean isLibraryClass(final Class<?> type) {
+        final String name = type.getName();
+        return name.startsWith("java.") || name.startsWith("io.netty.");
+    }
+
+}
@@ -1,8 +1,27 @@
 package dev.cerus.visualcrafting.api.version;
 
 import dev.cerus.visualcrafting.api.config.Config;
+import dev.cerus.visualcrafting.api.util.ConcurrentIntSet;
+import dev.cerus.visualcrafting.api.util.IdAllocator;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelPipeline;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import org.bukkit.Location;
 import org.bukkit.Rotation;
 import org.bukkit.block.BlockFace;
@@ -16,6 +35,29 @@ public abstract class VersionAdapter {
 
     protected static final EnumSet<Feature> FEATURES_BASE = EnumSet.of(Feature.MAPS);
     protected static final EnumSet<Feature> FEATURES_DISPLAY = EnumSet.of(Feature.MAPS, Feature.ITEM_DISPLAYS);
+    protected static final int ITEM_CONVERSION_CACHE_SIZE = 256;
+    protected static final int DISPLAY_METADATA_SLOTS = 6;
+    protected static final String HANDLER_NAME = "visual_crafting";
+
+    private final PacketSink packetSink = new PacketSink(this::getChannel, this::sendPacket);
+    private final ConcurrentIntSet ownedEntityIds = new ConcurrentIntSet();
+    private ItemConversionCache<?> itemConversionCache;
+    private boolean directDisplayEncoding;
+    private DirectDisplayEncoder displayEncoder;
+    private DirectDisplayEncoder.BulkPacketFactory displayMetadataFactory;
+    private DirectDisplayEncoder.BulkPacketFactory displayReplayFactory;
+    private final Set<Channel> injectedChannels = ConcurrentHashMap.newKeySet();
+    private EntityClickHandler entityClickHandler;
+    private IdAllocator entityIdAllocator;
+    private IdAllocator mapIdAllocator;
+    private final Queue<FakeMap> mapPool = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pooledMaps = new AtomicInteger();
+    private final LongAdder mapRequests = new LongAdder();
+    private final LongAdder mapPoolMisses = new LongAdder();
+    private int mapPoolSize;
+    private final Map<Integer, MetadataState> metadataStates = new ConcurrentHashMap<>();
+    private final PacketSink.StateFactory<FakeItemDisplay> displayStates = this::createDisplayState;
+    private final MapVersions mapVersions = new MapVersions();
 
     /**
      * Initialize the adapter
@@ -26,59 +68,385 @@ public abstract class VersionAdapter {
     public abstract void init(Config config, BiConsumer<Player, Integer> entityClickCallback);
 
     /**
-     * Used to inject a packet listener
+     * Used to inject a packet listener. Injecting a player twice is harmless.
      *
      * @param player The player to inject
      */
-    public abstract void inject(Player player);
+    public void inject(final Player player) {
+        if (this.entityClickHandler == null) {
+            return;
+        }
+
+        final Channel channel = this.getChannel(player);
+        channel.attr(EntityClickHandler.PLAYER_KEY).set(player);
+        if (this.injectedChannels.add(channel)) {
+            channel.closeFuture().addListener(future -> this.injectedChannels.remove(channel));
+        }
+        this.runOnEventLoop(channel, () -> {
+            final ChannelPipeline pipeline = channel.pipeline();
+            final ChannelHandler current = pipeline.get(HANDLER_NAME);
+            if (current == this.entityClickHandler || pipeline.get("packet_handler") == null) {
+                return;
+            }
+            if (current != null) {
+                // Left behind by a previous instance of the plugin
+                pipeline.replace(HANDLER_NAME, HANDLER_NAME, this.entityClickHandler);
+            } else {
+                pipeline.addBefore("packet_handler", HANDLER_NAME, this.entityClickHandler);
+            }
+        });
+    }
+
+    /**
+     * Remove the packet listener of a player
+     *
+     * @param player The player to uninject
+     */
+    public void uninject(final Player player) {
+        this.uninject(this.getChannel(player));
+    }
+
+    /**
+     * Remove the packet listener of every injected player
+     */
+    public void uninjectAll() {
+        for (final Channel channel : this.injectedChannels) {
+            this.uninject(channel);
+        }
+    }
+
+    private void uninject(final Channel channel) {
+        this.injectedChannels.remove(channel);
+        channel.attr(EntityClickHandler.PLAYER_KEY).set(null);
+        this.runOnEventLoop(channel, () -> {
+            if (channel.pipeline().get(HANDLER_NAME) != null) {
+                channel.pipeline().remove(HANDLER_NAME);
+            }
+        });
+    }
+
+    private void runOnEventLoop(final Channel channel, final Runnable runnable) {
+        // Pipeline changes are done on the event loop so that they can't race with the channel's own changes
+        if (channel.eventLoop().inEventLoop()) {
+            runnable.run();
+            return;
+        }
+        try {
+            channel.eventLoop().execute(runnable);
+        } catch (final RejectedExecutionException ignored) {
+            // Event loop is shutting down, the pipeline will be gone soon anyway
+        }
+    }
+
+    /**
+     * Start listening for clicks on fake entities. Players have to be injected afterwards.
+     *
+     * @param packetClass   The nms use entity packet class
+     * @param entityIdField The name of the packet's entity id field
+     * @param callback      Callback when a player clicks one of our entities
+     */
+    protected void listenForEntityClicks(final Class<?> packetClass, final String entityIdField, final BiConsumer<Player, Integer> callback) {
+        this.entityClickHandler = new EntityClickHandler(packetClass, entityIdField, this.ownedEntityIds, callback);
+    }
 
     /**
      * Spawn a fake item frame and return the frame's id
      *
+     * @param audience  The players that should see the frame
      * @param location  Location of the frame
      * @param direction Direction the frame is facing
      *
      * @return Frame entity id
      */
-    public abstract int spawnItemFrame(Location location, BlockFace direction);
+    public abstract int spawnItemFrame(Audience audience, Location location, BlockFace direction);
 
     /**
      * Update a fake item frame's item, rotation and visibility
      *
+     * @param audience  The players that can see the frame
      * @param frameId   The entity id of the frame
      * @param itemStack The displayed item
      * @param rotation  The frame's rotation
      * @param invisible The frame's visibility
      */
-    public abstract void updateItemFrame(int frameId, ItemStack itemStack, Rotation rotation, boolean invisible);
+    public abstract void updateItemFrame(Audience audience, int frameId, ItemStack itemStack, Rotation rotation, boolean invisible);
+
+    /**
+     * Spawn an existing fake item frame with its full state, e.g. for players that have just come into range
+     *
+     * @param audience  The players that should see the frame
+     * @param frameId   The entity id of the frame
+     * @param location  Location of the frame
+     * @param direction Direction the frame is facing
+     * @param itemStack The displayed item
+     * @param rotation  The frame's rotation
+     * @param invisible The frame's visibility
+     */
+    public abstract void replayItemFrame(Audience audience,
+                                         int frameId,
+                                         Location location,
+                                         BlockFace direction,
+                                         ItemStack itemStack,
+                                         Rotation rotation,
+                                         boolean invisible);
 
     /**
      * Spawn a fake item display and return the display's id
      *
+     * @param audience    The players that should see the display
      * @param itemDisplay The item display
      *
      * @return Display entity id
      */
-    public int spawnItemDisplay(final FakeItemDisplay itemDisplay) {
+    public int spawnItemDisplay(final Audience audience, final FakeItemDisplay itemDisplay) {
         throw new UnsupportedOperationException();
     }
 
     /**
      * Update a fake item display
      *
+     * @param audience    The players that can see the display
      * @param displayId   The entity id of the display
      * @param itemDisplay The display
      */
-    public void updateItemDisplay(final int displayId, final FakeItemDisplay itemDisplay) {
+    public void updateItemDisplay(final Audience audience, final int displayId, final FakeItemDisplay itemDisplay) {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Spawn multiple fake item displays and send their initial metadata
+     * <p>
+     * Implementations should send the whole batch at once if the protocol allows it.
+     *
+     * @param audience     The players that should see the displays
+     * @param itemDisplays The item displays
+     *
+     * @return Display entity ids, in the same order as the displays
+     */
+    public int[] spawnItemDisplays(final Audience audience, final FakeItemDisplay[] itemDisplays) {
+        final int[] displayIds = new int[itemDisplays.length];
+        for (int i = 0; i < itemDisplays.length; i++) {
+            displayIds[i] = this.spawnItemDisplay(audience, itemDisplays[i]);
+            this.updateItemDisplay(audience, displayIds[i], itemDisplays[i]);
+        }
+        return displayIds;
+    }
+
+    /**
+     * Update multiple fake item displays
+     *
+     * @param audience     The players that can see the displays
+     * @param displayIds   The entity ids of the displays
+     * @param itemDisplays The displays, in the same order as the ids
+     */
+    public void updateItemDisplays(final Audience audience, final int[] displayIds, final FakeItemDisplay[] itemDisplays) {
+        for (int i = 0; i < displayIds.length; i++) {
+            this.updateItemDisplay(audience, displayIds[i], itemDisplays[i]);
+        }
+    }
+
+    /**
+     * Spawn existing fake item displays with their full state, e.g. for players that have just come into range
+     *
+     * @param audience     The players that should see the displays
+     * @param displayIds   The entity ids of the displays
+     * @param itemDisplays The displays, in the same order as the ids
+     */
+    public void replayItemDisplays(final Audience audience, final int[] displayIds, final FakeItemDisplay[] itemDisplays) {
         throw new UnsupportedOperationException();
     }
 
     /**
      * Remove an entity
      *
+     * @param audience The players that can see the entity
      * @param entityId The entity's id
      */
-    public abstract void destroyEntity(int entityId);
+    public abstract void destroyEntity(Audience audience, int entityId);
+
+    /**
+     * Remove multiple entities
+     *
+     * @param audience  The players that can see the entities
+     * @param entityIds The entity ids
+     */
+    public void destroyEntities(final Audience audience, final int[] entityIds) {
+        for (final int entityId : entityIds) {
+            this.destroyEntity(audience, entityId);
+        }
+    }
+
+    /**
+     * Remove entities for some players only, e.g. for players that have left the range. The entities
+     * stay alive and can be replayed later.
+     *
+     * @param audience  The players that should no longer see the entities
+     * @param entityIds The entity ids
+     */
+    public abstract void despawnEntities(Audience audience, int... entityIds);
+
+    /**
+     * Get the last sent metadata of a fake entity
+     *
+     * @param entityId The entity's id
+     * @param size     The amount of metadata slots the entity uses
+     *
+     * @return The entity's metadata state
+     */
+    protected MetadataState getMetadataState(final int entityId, final int size) {
+        return this.metadataStates.computeIfAbsent(entityId, id -> new MetadataState(size));
+    }
+
+    /**
+     * Set up the packet sink, the entity and map id ranges and the map pool
+     *
+     * @param config The plugin config
+     */
+    protected void setup(final Config config) {
+        this.packetSink.configure(config);
+        this.entityIdAllocator = new IdAllocator(config.entityIdRangeMin(), config.entityIdRangeMax());
+        this.mapIdAllocator = new IdAllocator(config.mapIdRangeMin(), config.mapIdRangeMax());
+        this.mapPoolSize = config.mapPoolSize();
+        this.directDisplayEncoding = config.directDisplayEncoding();
+    }
+
+    /**
+     * Write item display packets directly if enabled in the config. Must be called after {@link #setup(Config)}.
+     *
+     * @param protocol        The metadata layout of the server's version
+     * @param replayFactory   Creates a bundle with the spawn and full metadata packets of item displays
+     * @param metadataFactory Creates a bundle with the full metadata packets of item displays
+     * @param itemFactory     Creates a metadata packet that only contains the displayed item
+     */
+    protected void enableDirectDisplayEncoding(final DisplayProtocol protocol,
+                                               final DirectDisplayEncoder.BulkPacketFactory replayFactory,
+                                               final DirectDisplayEncoder.BulkPacketFactory metadataFactory,
+                                               final DirectDisplayEncoder.ItemPacketFactory itemFactory) {
+        if (!this.directDisplayEncoding) {
+            return;
+        }
+        this.displayReplayFactory = replayFactory;
+        this.displayMetadataFactory = metadataFactory;
+        this.displayEncoder = new DirectDisplayEncoder(protocol, replayFactory, itemFactory);
+    }
+
+    /**
+     * Encode item display packets directly
+     *
+     * @param audience     The receiving players
+     * @param displayIds   The entity ids of the displays
+     * @param itemDisplays The displays, in the same order as the ids
+     * @param mode         Which packets to encode
+     *
+     * @return The encoded packet or null if the regular nms packets have to be sent
+     */
+    protected EncodedPacket encodeItemDisplays(final Audience audience,
+                                               final int[] displayIds,
+                                               final FakeItemDisplay[] itemDisplays,
+                                               final DirectDisplayEncoder.Mode mode) {
+        if (this.displayEncoder == null) {
+            return null;
+        }
+        final Collection<? extends Player> players = audience.getPlayers();
+        if (players.isEmpty()) {
+            return null;
+        }
+        final DirectDisplayEncoder.BulkPacketFactory fallbackFactory = mode == DirectDisplayEncoder.Mode.UPDATE
+                ? this.displayMetadataFactory
+                : this.displayReplayFactory;
+        return this.displayEncoder.encode(
+                players,
+                this::getChannel,
+                displayIds,
+                itemDisplays,
+                mode != DirectDisplayEncoder.Mode.UPDATE,
+                mode == DirectDisplayEncoder.Mode.REPLAY ? null : id -> this.getMetadataState(id, DISPLAY_METADATA_SLOTS),
+                () -> fallbackFactory.create(displayIds, itemDisplays)
+        );
+    }
+
+    /**
+     * Allocate an id for a new fake entity
+     *
+     * @return The entity id
+     */
+    protected int newEntityId() {
+        final int entityId = this.entityIdAllocator.allocate();
+        this.ownedEntityIds.add(entityId);
+        return entityId;
+    }
+
+    /**
+     * Get the uuid of a fake entity
+     *
+     * @param entityId The entity's id
+     *
+     * @return The entity's uuid
+     */
+    protected UUID getEntityUuid(final int entityId) {
+        return IdAllocator.uuidOf(entityId);
+    }
+
+    /**
+     * Allocate an id for a new fake map
+     *
+     * @return The map id
+     */
+    protected int newMapId() {
+        return this.mapIdAllocator.allocate();
+    }
+
+    /**
+     * Forget everything about a fake entity and release its id. Should be called when the entity is removed.
+     *
+     * @param entityId The entity's id
+     */
+    protected void forgetEntity(final int entityId) {
+        this.metadataStates.remove(entityId);
+        this.packetSink.discardState(PacketSink.entityKey(entityId));
+        // Only release ids that are still owned, releasing an id twice would hand it out twice
+        if (this.ownedEntityIds.remove(entityId)) {
+            this.entityIdAllocator.release(entityId);
+        }
+    }
+
+    /**
+     * Forget the state of fake entities that some players no longer see. The entities stay alive, so their ids
+     * and shared metadata state are kept.
+     *
+     * @param audience  The players that no longer see the entities
+     * @param entityIds The entity ids
+     */
+    protected void forgetDespawnedEntities(final Audience audience, final int... entityIds) {
+        final long[] stateKeys = new long[entityIds.length];
+        for (int i = 0; i < entityIds.length; i++) {
+            stateKeys[i] = PacketSink.entityKey(entityIds[i]);
+        }
+        this.packetSink.discardState(audience, stateKeys);
+    }
+
+    /**
+     * Create the item conversion cache of this adapter
+     *
+     * @param converter Function that converts a Bukkit item stack
+     * @param <T>       The converted item type
+     *
+     * @return A new item conversion cache
+     */
+    protected <T> ItemConversionCache<T> createItemConversionCache(final Function<ItemStack, T> converter) {
+        final ItemConversionCache<T> cache = new ItemConversionCache<>(ITEM_CONVERSION_CACHE_SIZE, converter);
+        this.itemConversionCache = cache;
+        return cache;
+    }
+
+    /**
+     * Get the item conversion cache of this adapter
+     *
+     * @return The item conversion cache or null if this adapter does not cache item conversions
+     */
+    public ItemConversionCache<?> getItemConversionCache() {
+        return this.itemConversionCache;
+    }
 
     /**
      * Helper method for creating a new fake map
@@ -114,6 +482,18 @@ public abstract class VersionAdapter {
         return fakeMap.getData();
     }
 
+    /**
+     * Get the pixels of a region of a fake map
+     *
+     * @param fakeMap The fake map
+     * @param region  The region
+     *
+     * @return The data array for the full map, a copy of the region's pixels otherwise
+     */
+    protected byte[] getMapData(final FakeMap fakeMap, final MapRegion region) {
+        return region.isFull() ? fakeMap.getData() : fakeMap.copyRegion(region);
+    }
+
     /**
      * Get a fake map's nms handle
      *
@@ -126,18 +506,244 @@ public abstract class VersionAdapter {
     }
 
     /**
-     * Create a new fake map
+     * Create a new fake map with a fresh id
      *
      * @return A new fake map
      */
-    public abstract FakeMap createMap();
+    protected abstract FakeMap newMap();
 
     /**
-     * Broadcast a map
+     * Get a blank fake map. Released maps are reused before new maps are created.
      *
-     * @param map The map to broadcast
+     * @return A blank fake map
      */
-    public abstract void sendMap(FakeMap map);
+    public FakeMap createMap() {
+        this.mapRequests.increment();
+        final FakeMap pooled = this.mapPool.poll();
+        if (pooled != null) {
+            this.pooledMaps.decrementAndGet();
+            return pooled;
+        }
+        this.mapPoolMisses.increment();
+        return this.newMap();
+    }
+
+    /**
+     * Give a map that is no longer displayed back to the pool. The map must not be used afterwards.
+     *
+     * @param map The map
+     */
+    public void releaseMap(final FakeMap map) {
+        this.packetSink.discardState(PacketSink.mapKey(map.getId()));
+        this.mapVersions.forgetMap(map.getId());
+        if (this.pooledMaps.incrementAndGet() <= this.mapPoolSize) {
+            map.clear();
+            this.mapPool.offer(map);
+        } else {
+            // Pool is full, only keep the id
+            this.pooledMaps.decrementAndGet();
+            this.mapIdAllocator.release(map.getId());
+        }
+    }
+
+    /**
+     * Get the share of map requests that could not be served from the pool
+     *
+     * @return Value between 0 (every map was reused) and 1 (every map had to be created)
+     */
+    public double getMapPoolPressure() {
+        final long requests = this.mapRequests.sum();
+        return requests == 0 ? 0 : (double) this.mapPoolMisses.sum() / requests;
+    }
+
+    /**
+     * Send the part of a map that has changed since it was last sent
+     *
+     * @param audience The receiving players
+     * @param map      The map to send
+     */
+    public void sendMap(final Audience audience, final FakeMap map) {
+        final long previousVersion = map.getVersion();
+        final MapRegion region = map.takeDirtyRegion();
+        if (region == null) {
+            // Nothing has changed
+            return;
+        }
+
+        // The changed region is only enough for clients that have the previous version
+        final long version = map.getVersion();
+        final Collection<? extends Player> players = audience.getPlayers();
+        final List<Player> patched = new ArrayList<>(players.size());
+        List<Player> stale = null;
+        for (final Player player : players) {
+            final long known = this.mapVersions.swap(player, map.getId(), version);
+            if (known == previousVersion || region.isFull()) {
+                patched.add(player);
+            } else if (known != version) {
+                if (stale == null) {
+                    stale = new ArrayList<>();
+                }
+                stale.add(player);
+            }
+        }
+
+        final long stateKey = PacketSink.mapKey(map.getId());
+        final Supplier<Object> fullMap = () -> this.createMapPacket(map, MapRegion.FULL);
+        if (!patched.isEmpty()) {
+            this.sendState(Audience.of(patched), this.createMapPacket(map, region), stateKey, fullMap);
+        }
+        if (stale != null) {
+            this.sendState(Audience.of(stale), fullMap.get(), stateKey, fullMap);
+        }
+    }
+
+    /**
+     * Send a whole map to players that have not seen its current contents yet
+     *
+     * @param audience The receiving players
+     * @param map      The map to send
+     */
+    public void replayMap(final Audience audience, final FakeMap map) {
+        final long version = map.getVersion();
+        List<Player> stale = null;
+        for (final Player player : audience.getPlayers()) {
+            if (this.mapVersions.swap(player, map.getId(), version) != version) {
+                if (stale == null) {
+                    stale = new ArrayList<>();
+                }
+                stale.add(player);
+            }
+        }
+        if (stale != null) {
+            this.send(Audience.of(stale), this.createMapPacket(map, MapRegion.FULL));
+        }
+    }
+
+    /**
+     * Forget which maps a player's client has, e.g. because it has dropped them after a world change.
+     * Every map will be sent to the player in full again.
+     *
+     * @param player The player
+     */
+    public void forgetMapVersions(final Player player) {
+        this.mapVersions.forgetPlayer(player.getUniqueId());
+    }
+
+    /**
+     * Create a map packet that updates a region of a map
+     *
+     * @param map    The map
+     * @param region The region to send
+     *
+     * @return The nms packet
+     */
+    protected abstract Object createMapPacket(FakeMap map, MapRegion region);
+
+    /**
+     * Get the network channel of a player
+     *
+     * @param player The player
+     *
+     * @return The player's channel
+     */
+    protected abstract Channel getChannel(Player player);
+
+    /**
+     * Send a packet to a player directly, without going through the packet sink
+     *
+     * @param player The player
+     * @param packet The nms packet
+     */
+    protected abstract void sendPacket(Player player, Object packet);
+
+    /**
+     * Send a packet to every player of an audience
+     *
+     * @param audience The receiving players
+     * @param packet   The nms packet
+     */
+    protected void send(final Audience audience, final Object packet) {
+        this.packetSink.send(audience, packet);
+    }
+
+    /**
+     * Send a state packet to every player of an audience. Slow connections only receive the latest state.
+     *
+     * @param audience    The receiving players
+     * @param packet      The nms packet, may only contain the changes since the last state packet
+     * @param stateKey    The key of the entity or map, see {@link PacketSink#entityKey(int)} and {@link PacketSink#mapKey(int)}
+     * @param latestState Creates an nms packet that contains the full latest state
+     */
+    protected void sendState(final Audience audience, final Object packet, final long stateKey, final Supplier<?> latestState) {
+        this.packetSink.sendState(audience, packet, stateKey, latestState);
+    }
+
+    /**
+     * Send a metadata packet of an item display to every player of an audience, see
+     * {@link #sendItemDisplayStates(Audience, Object, int[], FakeItemDisplay[])}
+     *
+     * @param audience    The receiving players
+     * @param packet      The nms packet, may only contain the changes since the last state packet
+     * @param displayId   The entity id of the display
+     * @param itemDisplay The display
+     */
+    protected void sendItemDisplayState(final Audience audience, final Object packet, final int displayId, final FakeItemDisplay itemDisplay) {
+        this.packetSink.sendEntityState(audience, packet, displayId, itemDisplay, this.displayStates);
+    }
+
+    /**
+     * Send a metadata packet of item displays to every player of an audience. Slow connections only receive the
+     * latest state of every display.
+     * <p>
+     * Held back state is built from a copy of the displays, because grids reassign their displays between cells,
+     * and it is dropped once the display's entity is gone.
+     *
+     * @param audience     The receiving players
+     * @param packet       The nms packet or an encoded packet, may only contain the changes since the last state packet
+     * @param displayIds   The entity ids of the displays
+     * @param itemDisplays The displays, in the same order as the ids
+     */
+    protected void sendItemDisplayStates(final Audience audience, final Object packet, final int[] displayIds, final FakeItemDisplay[] itemDisplays) {
+        this.packetSink.sendEntityStates(audience, packet, displayIds, itemDisplays, this.displayStates);
+    }
+
+    private Supplier<?> createDisplayState(final int displayId, final FakeItemDisplay display) {
+        final FakeItemDisplay snapshot = new FakeItemDisplay(display.getLocation(),
+                display.getItemStack(),
+                display.getTransformation(),
+                display.getTransform());
+        // Creating the packet would also create the metadata state of a destroyed entity again
+        return () -> this.ownedEntityIds.contains(displayId) ? this.createFullItemDisplayMetadataPacket(displayId, snapshot) : null;
+    }
+
+    /**
+     * Create a metadata packet that contains the full state of an item display
+     *
+     * @param displayId   The entity id of the display
+     * @param itemDisplay The display
+     *
+     * @return The nms packet
+     */
+    protected Object createFullItemDisplayMetadataPacket(final int displayId, final FakeItemDisplay itemDisplay) {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Get the sink that delivers the packets of this adapter
+     *
+     * @return The packet sink
+     */
+    public PacketSink getPacketSink() {
+        return this.packetSink;
+    }
+
+    /**
+     * Send the latest state to slow connections that have caught up and flush all channels that
+     * received deferred packets. Should be called once per tick.
+     */
+    public void flushPackets() {
+        this.packetSink.flush();
+    }
 
     /**
      * Get an array of implemented VisualCrafting features
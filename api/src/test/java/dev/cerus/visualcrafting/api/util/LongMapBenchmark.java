@@ -0,0 +1,133 @@
+package dev.cerus.visualcrafting.api.util;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares the visualization maps with the boxed {@link HashMap} the controllers used before
+ * <p>
+ * Keys are packed block positions of active crafting tables. Lookups mirror a table update (the old
+ * controllers asked {@code containsKey} before {@code get}), churn mirrors a table being opened and closed.
+ * Run with {@code mvn -pl api test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=dev.cerus.visualcrafting.api.util.LongMapBenchmark} or from the IDE.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LongMapBenchmark {
+
+    private static final Object TABLE = new Object();
+
+    @Param("10000")
+    private int tables;
+
+    private long[] keys;
+    private long[] missingKeys;
+    private Map<Long, Object> hashMap;
+    private LongMap<Object> longMap;
+    private ConcurrentLongMap<Object> concurrentLongMap;
+    private int next;
+
+    public static void main(final String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(LongMapBenchmark.class.getSimpleName()).build()).run();
+    }
+
+    // Same packing as the controllers
+    private static long blockKey(final int x, final int y, final int z) {
+        return ((long) x & 0x7FFFFFF) | (((long) z & 0x7FFFFFF) << 27) | ((long) y << 54);
+    }
+
+    @Setup
+    public void setUp() {
+        final SplittableRandom random = new SplittableRandom(42);
+        this.keys = new long[this.tables];
+        this.missingKeys = new long[this.tables];
+        for (int i = 0; i < this.tables; i++) {
+            this.keys[i] = blockKey(random.nextInt(-10_000, 10_000), random.nextInt(-64, 320), random.nextInt(-10_000, 10_000));
+            this.missingKeys[i] = blockKey(random.nextInt(-10_000, 10_000), random.nextInt(-64, 320), random.nextInt(-10_000, 10_000));
+        }
+
+        this.hashMap = new HashMap<>();
+        this.longMap = new LongMap<>();
+        this.concurrentLongMap = new ConcurrentLongMap<>();
+        for (final long key : this.keys) {
+            this.hashMap.put(key, TABLE);
+            this.longMap.put(key, TABLE);
+            this.concurrentLongMap.put(key, TABLE);
+        }
+    }
+
+    private int nextIndex() {
+        final int index = this.next;
+        this.next = index + 1 == this.tables ? 0 : index + 1;
+        return index;
+    }
+
+    @Benchmark
+    public Object hashMapLookup() {
+        final long key = this.keys[this.nextIndex()];
+        return this.hashMap.containsKey(key) ? this.hashMap.get(key) : null;
+    }
+
+    @Benchmark
+    public Object longMapLookup() {
+        return this.longMap.get(this.keys[this.nextIndex()]);
+    }
+
+    @Benchmark
+    public Object concurrentLongMapLookup() {
+        return this.concurrentLongMap.get(this.keys[this.nextIndex()]);
+    }
+
+    @Benchmark
+    public Object hashMapMiss() {
+        final long key = this.missingKeys[this.nextIndex()];
+        return this.hashMap.containsKey(key) ? this.hashMap.get(key) : null;
+    }
+
+    @Benchmark
+    public Object longMapMiss() {
+        return this.longMap.get(this.missingKeys[this.nextIndex()]);
+    }
+
+    @Benchmark
+    public Object hashMapChurn() {
+        final int index = this.nextIndex();
+        this.hashMap.remove(this.keys[index]);
+        return this.hashMap.put(this.keys[index], TABLE);
+    }
+
+    @Benchmark
+    public Object longMapChurn() {
+        final int index = this.nextIndex();
+        this.longMap.remove(this.keys[index]);
+        return this.longMap.getOrCreate(this.keys[index], key -> TABLE);
+    }
+
+    @Benchmark
+    public Object concurrentLongMapChurn() {
+        final int index = this.nextIndex();
+        this.concurrentLongMap.remove(this.keys[index]);
+        return this.concurrentLongMap.getOrCreate(this.keys[index], key -> TABLE);
+    }
+
+}
@@ -1,15 +1,17 @@
 package dev.cerus.visualcrafting.v17r1;
 
 import dev.cerus.visualcrafting.api.config.Config;
+import dev.cerus.visualcrafting.api.version.Audience;
 import dev.cerus.visualcrafting.api.version.FakeMap;
+import dev.cerus.visualcrafting.api.version.ItemConversionCache;
+import dev.cerus.visualcrafting.api.version.MapRegion;
+import dev.cerus.visualcrafting.api.version.MetadataState;
+import dev.cerus.visualcrafting.api.version.PacketSink;
 import dev.cerus.visualcrafting.api.version.VersionAdapter;
-import io.netty.channel.ChannelDuplexHandler;
-import io.netty.channel.ChannelHandlerContext;
-import java.lang.reflect.Field;
-import java.util.Arrays;
+import io.netty.channel.Channel;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
-import java.util.UUID;
 import java.util.function.BiConsumer;
 import javax.annotation.Nullable;
 import net.minecraft.network.protocol.Packet;
@@ -23,7 +25,6 @@ import net.minecraft.network.syncher.DataWatcherRegistry;
 import net.minecraft.world.entity.EntityTypes;
 import net.minecraft.world.level.saveddata.maps.WorldMap;
 import net.minecraft.world.phys.Vec3D;
-import org.bukkit.Bukkit;
 import org.bukkit.Location;
 import org.bukkit.Rotation;
 import org.bukkit.block.BlockFace;
@@ -34,51 +35,87 @@ import org.bukkit.inventory.ItemStack;
 
 public class VersionAdapter17R1 extends VersionAdapter {
 
-    private Config config;
-    private BiConsumer<Player, Integer> entityClickCallback;
-    private int nextEntityId;
-    private int nextMapId;
+    private final ItemConversionCache<net.minecraft.world.item.ItemStack> itemCache = this.createItemConversionCache(CraftItemStack::asNMSCopy);
 
     @Override
     public void init(final Config config, final BiConsumer<Player, Integer> entityClickCallback) {
-        this.config = config;
-        this.entityClickCallback = entityClickCallback;
-        this.nextEntityId = config.entityIdRangeMin();
-        this.nextMapId = config.mapIdRangeMin();
+        if (config.enablePacketListening()) {
+            this.listenForEntityClicks(PacketPlayInUseEntity.class, "a", entityClickCallback);
+        }
+        this.setup(config);
+    }
+
+    @Override
+    public int spawnItemFrame(final Audience audience, final Location location, final BlockFace direction) {
+        final int eid = this.newEntityId();
+        final PacketPlayOutSpawnEntity packet = this.createItemFrameSpawnPacket(eid, location, direction);
+        this.send(audience, packet);
+        return eid;
     }
 
     @Override
-    public void inject(final Player player) {
-        if (this.config.enablePacketListening()) {
-            ((CraftPlayer) player).getHandle().b.a.k.pipeline()
-                    .addBefore("packet_handler", "visual_crafting", new ChannelDuplexHandler() {
-                        @Override
-                        public void channelRead(final ChannelHandlerContext ctx, final Object msg) throws Exception {
-                            if (msg instanceof PacketPlayInUseEntity useEntity) {
-                                VersionAdapter17R1.this.handlePacketIn(player, useEntity);
-                            }
-                            super.channelRead(ctx, msg);
-                        }
-                    });
+    public void updateItemFrame(final Audience audience, final int frameId, final ItemStack itemStack, final Rotation rotation, final boolean invisible) {
+        final PacketPlayOutEntityMetadata packet = this.createItemFrameMetadataPacket(frameId, itemStack, rotation, invisible, false);
+        if (packet == null) {
+            // Nothing has changed
+            return;
         }
+        this.sendState(audience, packet, PacketSink.entityKey(frameId),
+                () -> this.createItemFrameMetadataPacket(frameId, itemStack, rotation, invisible, true));
+    }
+
+    @Override
+    public void replayItemFrame(final Audience audience,
+                                final int frameId,
+                                final Location location,
+                                final BlockFace direction,
+                                final ItemStack itemStack,
+                                final Rotation rotation,
+                                final boolean invisible) {
+        this.send(audience, this.createItemFrameSpawnPacket(frameId, location, direction));
+        this.send(audience, this.createItemFrameMetadataPacket(frameId, itemStack, rotation, invisible, true));
+    }
+
+    @Override
+    public void destroyEntity(final Audience audience, final int entityId) {
+        this.forgetEntity(entityId);
+        final PacketPlayOutEntityDestroy packet = new PacketPlayOutEntityDestroy(entityId);
+        this.send(audience, packet);
     }
 
-    private void handlePacketIn(final Player player, final PacketPlayInUseEntity packet) {
-        try {
-            final Field a = packet.getClass().getDeclaredField("a");
-            a.setAccessible(true);
-            this.entityClickCallback.accept(player, (Integer) a.get(packet));
-        } catch (final NoSuchFieldException | IllegalAccessException e) {
-            e.printStackTrace();
+    @Override
+    public void despawnEntities(final Audience audience, final int... entityIds) {
+        this.forgetDespawnedEntities(audience, entityIds);
+        for (final int entityId : entityIds) {
+            final PacketPlayOutEntityDestroy packet = new PacketPlayOutEntityDestroy(entityId);
+            this.send(audience, packet);
         }
     }
 
     @Override
-    public int spawnItemFrame(final Location location, final BlockFace direction) {
-        final int eid = this.getNewEntityId();
-        final PacketPlayOutSpawnEntity packet = new PacketPlayOutSpawnEntity(
+    protected FakeMap newMap() {
+        return this.createMap(this.newMapId());
+    }
+
+    @Override
+    protected PacketPlayOutMap createMapPacket(final FakeMap map, final MapRegion region) {
+        return new PacketPlayOutMap(
+                map.getId(),
+                (byte) 0,
+                true,
+                Collections.emptyList(),
+                new WorldMap.b(region.x(),
+                        region.y(),
+                        region.width(),
+                        region.height(),
+                        this.getMapData(map, region))
+        );
+    }
+
+    private PacketPlayOutSpawnEntity createItemFrameSpawnPacket(final int eid, final Location location, final BlockFace direction) {
+        return new PacketPlayOutSpawnEntity(
                 eid,
-                UUID.randomUUID(),
+                this.getEntityUuid(eid),
                 location.getBlockX(),
                 location.getBlockY(),
                 location.getBlockZ(),
@@ -100,73 +137,45 @@ public class VersionAdapter17R1 extends VersionAdapter {
                 },
                 new Vec3D(0, 0, 0)
         );
-        Bukkit.getOnlinePlayers().forEach(player -> this.sendPacket(player, packet));
-        return eid;
     }
 
-    @Override
-    public void updateItemFrame(final int frameId, final ItemStack itemStack, final Rotation rotation, final boolean invisible) {
-        final PacketPlayOutEntityMetadata packet = new PacketPlayOutEntityMetadata(frameId, new DataWatcher(null) {
+    private PacketPlayOutEntityMetadata createItemFrameMetadataPacket(final int frameId,
+                                                                      final ItemStack itemStack,
+                                                                      final Rotation rotation,
+                                                                      final boolean invisible,
+                                                                      final boolean full) {
+        final MetadataState state = this.getMetadataState(frameId, 3);
+        final List<DataWatcher.Item<?>> entries = new ArrayList<>(3);
+        if (full || state.update(0, itemStack)) {
+            entries.add(new DataWatcher.Item<>(DataWatcherRegistry.g.a(8), this.itemCache.convert(itemStack)));
+        }
+        if (full || state.update(1, rotation)) {
+            entries.add(new DataWatcher.Item<>(DataWatcherRegistry.b.a(9), rotation.ordinal()));
+        }
+        if (full || state.update(2, invisible)) {
+            entries.add(new DataWatcher.Item<>(DataWatcherRegistry.a.a(0), (byte) (invisible ? 0x20 : 0)));
+        }
+        if (entries.isEmpty()) {
+            return null;
+        }
+
+        return new PacketPlayOutEntityMetadata(frameId, new DataWatcher(null) {
             @Override
             public @Nullable
             List<Item<?>> b() {
-                return Arrays.asList(
-                        new DataWatcher.Item<>(DataWatcherRegistry.g.a(8), CraftItemStack.asNMSCopy(itemStack)),
-                        new DataWatcher.Item<>(DataWatcherRegistry.b.a(9), rotation.ordinal()),
-                        new DataWatcher.Item<>(DataWatcherRegistry.a.a(0), (byte) (invisible ? 0x20 : 0))
-                );
+                return entries;
             }
         }, false);
-        Bukkit.getOnlinePlayers().forEach(player -> this.sendPacket(player, packet));
     }
 
     @Override
-    public void destroyEntity(final int entityId) {
-        final PacketPlayOutEntityDestroy packet = new PacketPlayOutEntityDestroy(entityId);
-        Bukkit.getOnlinePlayers().forEach(player -> this.sendPacket(player, packet));
-    }
-
-    @Override
-    public FakeMap createMap() {
-        return this.createMap(this.getNewMapId());
+    protected Channel getChannel(final Player player) {
+        return ((CraftPlayer) player).getHandle().b.a.k;
     }
 
     @Override
-    public void sendMap(final FakeMap map) {
-        final PacketPlayOutMap packet = new PacketPlayOutMap(
-                map.getId(),
-                (byte) 0,
-                true,
-                Collections.emptyList(),
-                new WorldMap.b(0,
-                        0,
-                        128,
-                        128,
-                        this.getMapData(map))
-        );
-        Bukkit.getOnlinePlayers().forEach(player -> this.sendPacket(player, packet));
-    }
-
-    private void sendPacket(final Player player, final Packet<?> packet) {
-        ((CraftPlayer) player).getHandle().b.sendPacket(packet);
-    }
-
-    private int getNewEntityId() {
-        if (this.nextEntityId >= this.config.entityIdRangeMax()) {
-            this.nextEntityId = this.config.entityIdRangeMin();
-            return this.nextEntityId;
-        } else {
-            return this.nextEntityId++;
-        }
-    }
-
-    private int getNewMapId() {
-        if (this.nextMapId >= this.config.mapIdRangeMax()) {
-            this.nextMapId = this.config.mapIdRangeMin();
-            return this.nextMapId;
-        } else {
-            return this.nextMapId++;
-        }
+    protected void sendPacket(final Player player, final Object packet) {
+        ((CraftPlayer) player).getHandle().b.sendPacket((Packet<?>) packet);
     }
 
 }
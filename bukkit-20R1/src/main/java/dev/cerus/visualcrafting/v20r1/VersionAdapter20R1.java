@@ -1,21 +1,30 @@
 package dev.cerus.visualcrafting.v20r1;
 
-import com.mojang.math.Transformation;
 import dev.cerus.visualcrafting.api.config.Config;
+import dev.cerus.visualcrafting.api.math.DisplayTransformation;
+import dev.cerus.visualcrafting.api.version.Audience;
+import dev.cerus.visualcrafting.api.version.DirectDisplayEncoder;
+import dev.cerus.visualcrafting.api.version.DisplayProtocol;
+import dev.cerus.visualcrafting.api.version.EncodedPacket;
 import dev.cerus.visualcrafting.api.version.FakeItemDisplay;
 import dev.cerus.visualcrafting.api.version.FakeMap;
 import dev.cerus.visualcrafting.api.version.Feature;
+import dev.cerus.visualcrafting.api.version.ItemConversionCache;
+import dev.cerus.visualcrafting.api.version.MapRegion;
+import dev.cerus.visualcrafting.api.version.MetadataState;
+import dev.cerus.visualcrafting.api.version.PacketSink;
 import dev.cerus.visualcrafting.api.version.VersionAdapter;
-import io.netty.channel.ChannelDuplexHandler;
-import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.Channel;
 import java.lang.reflect.Field;
-import java.util.Arrays;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.EnumSet;
-import java.util.UUID;
+import java.util.List;
 import java.util.function.BiConsumer;
 import net.minecraft.network.NetworkManager;
 import net.minecraft.network.protocol.Packet;
+import net.minecraft.network.protocol.game.ClientboundBundlePacket;
+import net.minecraft.network.protocol.game.PacketListenerPlayOut;
 import net.minecraft.network.protocol.game.PacketPlayInUseEntity;
 import net.minecraft.network.protocol.game.PacketPlayOutEntityDestroy;
 import net.minecraft.network.protocol.game.PacketPlayOutEntityMetadata;
@@ -27,7 +36,6 @@ import net.minecraft.server.network.PlayerConnection;
 import net.minecraft.world.entity.EntityTypes;
 import net.minecraft.world.level.saveddata.maps.WorldMap;
 import net.minecraft.world.phys.Vec3D;
-import org.bukkit.Bukkit;
 import org.bukkit.Location;
 import org.bukkit.Rotation;
 import org.bukkit.block.BlockFace;
@@ -38,10 +46,9 @@ import org.bukkit.inventory.ItemStack;
 
 public class VersionAdapter20R1 extends VersionAdapter {
 
-    private Config config;
-    private BiConsumer<Player, Integer> entityClickCallback;
-    private int nextEntityId;
-    private int nextMapId;
+    private static final DisplayProtocol DISPLAY_PROTOCOL = new DisplayProtocol(10, 11, 12, 13, 22, 23);
+
+    private final ItemConversionCache<net.minecraft.world.item.ItemStack> itemCache = this.createItemConversionCache(CraftItemStack::asNMSCopy);
     private Field netManField;
 
     private NetworkManager getNetworkManager(final PlayerConnection b) {
@@ -58,45 +65,171 @@ public class VersionAdapter20R1 extends VersionAdapter {
 
     @Override
     public void init(final Config config, final BiConsumer<Player, Integer> entityClickCallback) {
-        this.config = config;
-        this.entityClickCallback = entityClickCallback;
-        this.nextEntityId = config.entityIdRangeMin();
-        this.nextMapId = config.mapIdRangeMin();
+        if (config.enablePacketListening()) {
+            this.listenForEntityClicks(PacketPlayInUseEntity.class, "a", entityClickCallback);
+        }
+        this.setup(config);
+        this.enableDirectDisplayEncoding(DISPLAY_PROTOCOL,
+                this::createItemDisplayReplayBundle,
+                this::createItemDisplayMetadataBundle,
+                this::createItemMetadataPacket);
+    }
+
+    @Override
+    public int spawnItemFrame(final Audience audience, final Location location, final BlockFace direction) {
+        final int eid = this.newEntityId();
+        final PacketPlayOutSpawnEntity packet = this.createItemFrameSpawnPacket(eid, location, direction);
+        this.send(audience, packet);
+        return eid;
+    }
+
+    @Override
+    public int spawnItemDisplay(final Audience audience, final FakeItemDisplay itemDisplay) {
+        final int eid = this.newEntityId();
+        final PacketPlayOutSpawnEntity packet = this.createItemDisplaySpawnPacket(eid, itemDisplay);
+        this.send(audience, packet);
+        return eid;
+    }
+
+    @Override
+    public int[] spawnItemDisplays(final Audience audience, final FakeItemDisplay[] itemDisplays) {
+        final int[] eids = new int[itemDisplays.length];
+        for (int i = 0; i < itemDisplays.length; i++) {
+            eids[i] = this.newEntityId();
+        }
+        final EncodedPacket encoded = this.encodeItemDisplays(audience, eids, itemDisplays, DirectDisplayEncoder.Mode.SPAWN);
+        if (encoded != null) {
+            this.send(audience, encoded);
+            return eids;
+        }
+
+        final List<Packet<PacketListenerPlayOut>> packets = new ArrayList<>(itemDisplays.length * 2);
+        for (int i = 0; i < itemDisplays.length; i++) {
+            packets.add(this.createItemDisplaySpawnPacket(eids[i], itemDisplays[i]));
+            packets.add(this.createItemDisplayMetadataPacket(eids[i], itemDisplays[i], false));
+        }
+        final ClientboundBundlePacket packet = new ClientboundBundlePacket(packets);
+        this.send(audience, packet);
+        return eids;
     }
 
     @Override
-    public void inject(final Player player) {
-        if (this.config.enablePacketListening()) {
-            final NetworkManager netMan = this.getNetworkManager(((CraftPlayer) player).getHandle().c);
-            netMan.m.pipeline()
-                    .addBefore("packet_handler", "visual_crafting", new ChannelDuplexHandler() {
-                        @Override
-                        public void channelRead(final ChannelHandlerContext ctx, final Object msg) throws Exception {
-                            if (msg instanceof final PacketPlayInUseEntity useEntity) {
-                                VersionAdapter20R1.this.handlePacketIn(player, useEntity);
-                            }
-                            super.channelRead(ctx, msg);
-                        }
-                    });
+    public void updateItemFrame(final Audience audience, final int frameId, final ItemStack itemStack, final Rotation rotation, final boolean invisible) {
+        final PacketPlayOutEntityMetadata packet = this.createItemFrameMetadataPacket(frameId, itemStack, rotation, invisible, false);
+        if (packet == null) {
+            // Nothing has changed
+            return;
         }
+        this.sendState(audience, packet, PacketSink.entityKey(frameId),
+                () -> this.createItemFrameMetadataPacket(frameId, itemStack, rotation, invisible, true));
     }
 
-    private void handlePacketIn(final Player player, final PacketPlayInUseEntity packet) {
-        try {
-            final Field a = packet.getClass().getDeclaredField("a");
-            a.setAccessible(true);
-            this.entityClickCallback.accept(player, (Integer) a.get(packet));
-        } catch (final NoSuchFieldException | IllegalAccessException e) {
-            e.printStackTrace();
+    @Override
+    public void replayItemFrame(final Audience audience,
+                                final int frameId,
+                                final Location location,
+                                final BlockFace direction,
+                                final ItemStack itemStack,
+                                final Rotation rotation,
+                                final boolean invisible) {
+        final ClientboundBundlePacket packet = new ClientboundBundlePacket(List.of(
+                this.createItemFrameSpawnPacket(frameId, location, direction),
+                this.createItemFrameMetadataPacket(frameId, itemStack, rotation, invisible, true)
+        ));
+        this.send(audience, packet);
+    }
+
+    @Override
+    public void updateItemDisplay(final Audience audience, final int displayId, final FakeItemDisplay itemDisplay) {
+        final PacketPlayOutEntityMetadata packet = this.createItemDisplayMetadataPacket(displayId, itemDisplay, false);
+        if (packet == null) {
+            // Nothing has changed
+            return;
         }
+        this.sendItemDisplayState(audience, packet, displayId, itemDisplay);
     }
 
     @Override
-    public int spawnItemFrame(final Location location, final BlockFace direction) {
-        final int eid = this.getNewEntityId();
-        final PacketPlayOutSpawnEntity packet = new PacketPlayOutSpawnEntity(
+    public void updateItemDisplays(final Audience audience, final int[] displayIds, final FakeItemDisplay[] itemDisplays) {
+        final EncodedPacket encoded = this.encodeItemDisplays(audience, displayIds, itemDisplays, DirectDisplayEncoder.Mode.UPDATE);
+        if (encoded != null) {
+            this.sendItemDisplayStates(audience, encoded, displayIds, itemDisplays);
+            return;
+        }
+
+        final List<Packet<PacketListenerPlayOut>> packets = new ArrayList<>(displayIds.length);
+        for (int i = 0; i < displayIds.length; i++) {
+            final PacketPlayOutEntityMetadata metadataPacket = this.createItemDisplayMetadataPacket(displayIds[i], itemDisplays[i], false);
+            if (metadataPacket != null) {
+                packets.add(metadataPacket);
+            }
+        }
+        if (packets.isEmpty()) {
+            // Nothing has changed
+            return;
+        }
+        final ClientboundBundlePacket packet = new ClientboundBundlePacket(packets);
+        this.sendItemDisplayStates(audience, packet, displayIds, itemDisplays);
+    }
+
+    @Override
+    public void replayItemDisplays(final Audience audience, final int[] displayIds, final FakeItemDisplay[] itemDisplays) {
+        final EncodedPacket encoded = this.encodeItemDisplays(audience, displayIds, itemDisplays, DirectDisplayEncoder.Mode.REPLAY);
+        this.send(audience, encoded != null ? encoded : this.createItemDisplayReplayBundle(displayIds, itemDisplays));
+    }
+
+    @Override
+    public void destroyEntity(final Audience audience, final int entityId) {
+        this.forgetEntity(entityId);
+        final PacketPlayOutEntityDestroy packet = new PacketPlayOutEntityDestroy(entityId);
+        this.send(audience, packet);
+    }
+
+    @Override
+    public void destroyEntities(final Audience audience, final int[] entityIds) {
+        for (final int entityId : entityIds) {
+            this.forgetEntity(entityId);
+        }
+        final PacketPlayOutEntityDestroy packet = new PacketPlayOutEntityDestroy(entityIds);
+        this.send(audience, packet);
+    }
+
+    @Override
+    public void despawnEntities(final Audience audience, final int... entityIds) {
+        this.forgetDespawnedEntities(audience, entityIds);
+        final PacketPlayOutEntityDestroy packet = new PacketPlayOutEntityDestroy(entityIds);
+        this.send(audience, packet);
+    }
+
+    @Override
+    protected FakeMap newMap() {
+        return this.createMap(this.newMapId());
+    }
+
+    @Override
+    protected PacketPlayOutMap createMapPacket(final FakeMap map, final MapRegion region) {
+        return new PacketPlayOutMap(
+                map.getId(),
+                (byte) 0,
+                true,
+                Collections.emptyList(),
+                new WorldMap.b(region.x(),
+                        region.y(),
+                        region.width(),
+                        region.height(),
+                        this.getMapData(map, region))
+        );
+    }
+
+    @Override
+    public EnumSet<Feature> getImplementedFeatures() {
+        return FEATURES_DISPLAY;
+    }
+
+    private PacketPlayOutSpawnEntity createItemFrameSpawnPacket(final int eid, final Location location, final BlockFace direction) {
+        return new PacketPlayOutSpawnEntity(
                 eid,
-                UUID.randomUUID(),
+                this.getEntityUuid(eid),
                 location.getBlockX(),
                 location.getBlockY(),
                 location.getBlockZ(),
@@ -124,16 +257,35 @@ public class VersionAdapter20R1 extends VersionAdapter {
                     default -> 0;
                 }
         );
-        Bukkit.getOnlinePlayers().forEach(player -> this.sendPacket(player, packet));
-        return eid;
     }
 
-    @Override
-    public int spawnItemDisplay(final FakeItemDisplay itemDisplay) {
-        final int eid = this.getNewEntityId();
-        final PacketPlayOutSpawnEntity packet = new PacketPlayOutSpawnEntity(
+    private PacketPlayOutEntityMetadata createItemFrameMetadataPacket(final int frameId,
+                                                                      final ItemStack itemStack,
+                                                                      final Rotation rotation,
+                                                                      final boolean invisible,
+                                                                      final boolean full) {
+        final MetadataState state = this.getMetadataState(frameId, 3);
+        final List<DataWatcher.b<?>> entries = new ArrayList<>(3);
+        if (full || state.update(0, itemStack)) {
+            entries.add(new DataWatcher.b<>(8, DataWatcherRegistry.h, this.itemCache.convert(itemStack)));
+        }
+        if (full || state.update(1, rotation)) {
+            entries.add(new DataWatcher.b<>(9, DataWatcherRegistry.b, rotation.ordinal()));
+        }
+        if (full || state.update(2, invisible)) {
+            entries.add(new DataWatcher.b<>(0, DataWatcherRegistry.a, (byte) (invisible ? 0x20 : 0)));
+        }
+        if (entries.isEmpty()) {
+            return null;
+        }
+
+        return new PacketPlayOutEntityMetadata(frameId, entries);
+    }
+
+    private PacketPlayOutSpawnEntity createItemDisplaySpawnPacket(final int eid, final FakeItemDisplay itemDisplay) {
+        return new PacketPlayOutSpawnEntity(
                 eid,
-                UUID.randomUUID(),
+                this.getEntityUuid(eid),
                 itemDisplay.getLocation().getBlockX(),
                 itemDisplay.getLocation().getBlockY(),
                 itemDisplay.getLocation().getBlockZ(),
@@ -144,86 +296,69 @@ public class VersionAdapter20R1 extends VersionAdapter {
                 new Vec3D(0, 0, 0),
                 0
         );
-        Bukkit.getOnlinePlayers().forEach(player -> this.sendPacket(player, packet));
-        return eid;
     }
 
-    @Override
-    public void updateItemFrame(final int frameId, final ItemStack itemStack, final Rotation rotation, final boolean invisible) {
-        final PacketPlayOutEntityMetadata packet = new PacketPlayOutEntityMetadata(frameId, Arrays.asList(
-                new DataWatcher.b<>(8, DataWatcherRegistry.h, CraftItemStack.asNMSCopy(itemStack)),
-                new DataWatcher.b<>(9, DataWatcherRegistry.b, rotation.ordinal()),
-                new DataWatcher.b<>(0, DataWatcherRegistry.a, (byte) (invisible ? 0x20 : 0))
-        ));
-        Bukkit.getOnlinePlayers().forEach(player -> this.sendPacket(player, packet));
+    private ClientboundBundlePacket createItemDisplayReplayBundle(final int[] displayIds, final FakeItemDisplay[] itemDisplays) {
+        final List<Packet<PacketListenerPlayOut>> packets = new ArrayList<>(displayIds.length * 2);
+        for (int i = 0; i < displayIds.length; i++) {
+            packets.add(this.createItemDisplaySpawnPacket(displayIds[i], itemDisplays[i]));
+            packets.add(this.createItemDisplayMetadataPacket(displayIds[i], itemDisplays[i], true));
+        }
+        return new ClientboundBundlePacket(packets);
     }
 
-    @Override
-    public void updateItemDisplay(final int displayId, final FakeItemDisplay itemDisplay) {
-        final Transformation nmsTransf = new Transformation(itemDisplay.getTransformationMatrix());
-        final PacketPlayOutEntityMetadata packet = new PacketPlayOutEntityMetadata(displayId, Arrays.asList(
-                new DataWatcher.b<>(10, DataWatcherRegistry.A, nmsTransf.d()),
-                new DataWatcher.b<>(11, DataWatcherRegistry.A, nmsTransf.f()),
-                new DataWatcher.b<>(12, DataWatcherRegistry.B, nmsTransf.e()),
-                new DataWatcher.b<>(13, DataWatcherRegistry.B, nmsTransf.g()),
-                new DataWatcher.b<>(22, DataWatcherRegistry.h, CraftItemStack.asNMSCopy(itemDisplay.getItemStack())),
-                new DataWatcher.b<>(23, DataWatcherRegistry.a, (byte) itemDisplay.getTransform().ordinal())
-        ));
-        Bukkit.getOnlinePlayers().forEach(player -> this.sendPacket(player, packet));
+    private ClientboundBundlePacket createItemDisplayMetadataBundle(final int[] displayIds, final FakeItemDisplay[] itemDisplays) {
+        final List<Packet<PacketListenerPlayOut>> packets = new ArrayList<>(displayIds.length);
+        for (int i = 0; i < displayIds.length; i++) {
+            packets.add(this.createItemDisplayMetadataPacket(displayIds[i], itemDisplays[i], true));
+        }
+        return new ClientboundBundlePacket(packets);
     }
 
     @Override
-    public void destroyEntity(final int entityId) {
-        final PacketPlayOutEntityDestroy packet = new PacketPlayOutEntityDestroy(entityId);
-        Bukkit.getOnlinePlayers().forEach(player -> this.sendPacket(player, packet));
+    protected Object createFullItemDisplayMetadataPacket(final int displayId, final FakeItemDisplay itemDisplay) {
+        return this.createItemDisplayMetadataPacket(displayId, itemDisplay, true);
     }
 
-    @Override
-    public FakeMap createMap() {
-        return this.createMap(this.getNewMapId());
+    private PacketPlayOutEntityMetadata createItemDisplayMetadataPacket(final int displayId, final FakeItemDisplay itemDisplay, final boolean full) {
+        final DisplayTransformation transformation = itemDisplay.getTransformation();
+        final MetadataState state = this.getMetadataState(displayId, DISPLAY_METADATA_SLOTS);
+        final List<DataWatcher.b<?>> entries = new ArrayList<>(6);
+        if (full || state.update(0, transformation.getTranslation())) {
+            entries.add(new DataWatcher.b<>(10, DataWatcherRegistry.A, transformation.getTranslation()));
+        }
+        if (full || state.update(1, transformation.getScale())) {
+            entries.add(new DataWatcher.b<>(11, DataWatcherRegistry.A, transformation.getScale()));
+        }
+        if (full || state.update(2, transformation.getLeftRotation())) {
+            entries.add(new DataWatcher.b<>(12, DataWatcherRegistry.B, transformation.getLeftRotation()));
+        }
+        if (full || state.update(3, transformation.getRightRotation())) {
+            entries.add(new DataWatcher.b<>(13, DataWatcherRegistry.B, transformation.getRightRotation()));
+        }
+        if (full || state.update(4, itemDisplay.getItemStack())) {
+            entries.add(new DataWatcher.b<>(22, DataWatcherRegistry.h, this.itemCache.convert(itemDisplay.getItemStack())));
+        }
+        if (full || state.update(5, itemDisplay.getTransform())) {
+            entries.add(new DataWatcher.b<>(23, DataWatcherRegistry.a, (byte) itemDisplay.getTransform().ordinal()));
+        }
+        return entries.isEmpty() ? null : new PacketPlayOutEntityMetadata(displayId, entries);
     }
 
-    @Override
-    public void sendMap(final FakeMap map) {
-        final PacketPlayOutMap packet = new PacketPlayOutMap(
-                map.getId(),
-                (byte) 0,
-                true,
-                Collections.emptyList(),
-                new WorldMap.b(0,
-                        0,
-                        128,
-                        128,
-                        this.getMapData(map))
-        );
-        Bukkit.getOnlinePlayers().forEach(player -> this.sendPacket(player, packet));
+    private PacketPlayOutEntityMetadata createItemMetadataPacket(final int displayId, final ItemStack itemStack) {
+        return new PacketPlayOutEntityMetadata(displayId, List.of(
+                new DataWatcher.b<>(22, DataWatcherRegistry.h, this.itemCache.convert(itemStack))
+        ));
     }
 
     @Override
-    public EnumSet<Feature> getImplementedFeatures() {
-        return FEATURES_DISPLAY;
-    }
-
-    private void sendPacket(final Player player, final Packet<?> packet) {
-        ((CraftPlayer) player).getHandle().c.a(packet);
-    }
-
-    private int getNewEntityId() {
-        if (this.nextEntityId >= this.config.entityIdRangeMax()) {
-            this.nextEntityId = this.config.entityIdRangeMin();
-            return this.nextEntityId;
-        } else {
-            return this.nextEntityId++;
-        }
+    protected Channel getChannel(final Player player) {
+        return this.getNetworkManager(((CraftPlayer) player).getHandle().c).m;
     }
 
-    private int getNewMapId() {
-        if (this.nextMapId >= this.config.mapIdRangeMax()) {
-            this.nextMapId = this.config.mapIdRangeMin();
-            return this.nextMapId;
-        } else {
-            return this.nextMapId++;
-        }
+    @Override
+    protected void sendPacket(final Player player, final Object packet) {
+        ((CraftPlayer) player).getHandle().c.a((Packet<?>) packet);
     }
 
 }
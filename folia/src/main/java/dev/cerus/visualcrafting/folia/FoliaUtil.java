@@ -1,6 +1,7 @@
 package dev.cerus.visualcrafting.folia;
 
 import org.bukkit.Bukkit;
+import org.bukkit.Location;
 import org.bukkit.entity.Entity;
 import org.bukkit.plugin.java.JavaPlugin;
 
@@ -24,10 +25,18 @@ public class FoliaUtil {
         entity.getScheduler().execute(plugin, runnable, null, delay);
     }
 
+    public static void scheduleOnRegion(JavaPlugin plugin, Location location, Runnable runnable, long delay) {
+        Bukkit.getServer().getRegionScheduler().runDelayed(plugin, location, task -> runnable.run(), delay);
+    }
+
     public static void scheduleOnServer(JavaPlugin plugin, Runnable runnable) {
         Bukkit.getServer().getGlobalRegionScheduler().execute(plugin, runnable);
     }
 
+    public static void scheduleOnServerAtFixedRate(JavaPlugin plugin, Runnable runnable, long delay, long period) {
+        Bukkit.getServer().getGlobalRegionScheduler().runAtFixedRate(plugin, task -> runnable.run(), delay, period);
+    }
+
     private static boolean classExists(final String clazz) {
         try {
             Class.forName(clazz);
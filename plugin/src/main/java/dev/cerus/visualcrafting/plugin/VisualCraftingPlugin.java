@@ -3,19 +3,29 @@ package dev.cerus.visualcrafting.plugin;
 import dev.cerus.visualcrafting.api.config.Config;
 import dev.cerus.visualcrafting.api.version.VersionAdapter;
 import dev.cerus.visualcrafting.folia.FoliaUtil;
+import dev.cerus.visualcrafting.plugin.audience.AudiencePolicy;
+import dev.cerus.visualcrafting.plugin.audience.AudienceResolver;
+import dev.cerus.visualcrafting.plugin.audience.PlayerIndex;
+import dev.cerus.visualcrafting.plugin.audience.ViewerTracker;
 import dev.cerus.visualcrafting.plugin.listener.CancelCraftingListener;
 import dev.cerus.visualcrafting.plugin.listener.CraftingInventoryInteractListener;
 import dev.cerus.visualcrafting.plugin.listener.PlayerJoinListener;
+import dev.cerus.visualcrafting.plugin.listener.PlayerPositionListener;
+import dev.cerus.visualcrafting.plugin.listener.PlayerQuitListener;
+import dev.cerus.visualcrafting.plugin.listener.PlayerWorldChangeListener;
 import dev.cerus.visualcrafting.plugin.listener.PreItemCraftListener;
 import dev.cerus.visualcrafting.plugin.texture.TextureCache;
 import dev.cerus.visualcrafting.plugin.texture.TextureDownloader;
 import dev.cerus.visualcrafting.plugin.visualizer.DisplayVisualizationController;
+import dev.cerus.visualcrafting.plugin.visualizer.EntityPool;
 import dev.cerus.visualcrafting.plugin.visualizer.MapVisualizationController;
+import dev.cerus.visualcrafting.plugin.visualizer.TableUpdateScheduler;
 import dev.cerus.visualcrafting.plugin.visualizer.VisualizationController;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import org.bstats.bukkit.Metrics;
 import org.bstats.charts.SimplePie;
@@ -25,6 +35,8 @@ import org.bukkit.plugin.java.JavaPlugin;
 
 public class VisualCraftingPlugin extends JavaPlugin implements Config {
 
+    private VersionAdapter versionAdapter;
+
     @Override
     public void onEnable() {
         this.saveDefaultConfig();
@@ -76,6 +88,15 @@ public class VisualCraftingPlugin extends JavaPlugin implements Config {
         }
         final String finalRenderType = renderType; // Java does Java things
 
+        final PlayerIndex playerIndex = new PlayerIndex();
+        Bukkit.getOnlinePlayers().forEach(player -> playerIndex.update(player, player.getLocation()));
+        final ViewerTracker viewerTracker = new ViewerTracker(playerIndex, this.getAudienceChunkRadius());
+        final AudienceResolver audienceResolver = new AudienceResolver(this.getAudiencePolicy(), viewerTracker);
+        final EntityPool entityPool = new EntityPool(
+                Math.max(0, this.getConfig().getInt("entity-pool.size", 64)),
+                TimeUnit.SECONDS.toMillis(this.getConfig().getInt("entity-pool.idle-seconds", 30))
+        );
+
         final VisualizationController visualizationController = switch (renderType) {
             case "MAP" -> {
                 // Initialize textures
@@ -96,9 +117,9 @@ public class VisualCraftingPlugin extends JavaPlugin implements Config {
                             });
                 }
 
-                yield new MapVisualizationController(versionAdapter, textureCache);
+                yield new MapVisualizationController(versionAdapter, textureCache, audienceResolver, entityPool);
             }
-            case "DISPLAY" -> new DisplayVisualizationController(versionAdapter);
+            case "DISPLAY" -> new DisplayVisualizationController(versionAdapter, audienceResolver, entityPool);
             default -> null;
         };
         if (visualizationController == null) {
@@ -115,10 +136,11 @@ public class VisualCraftingPlugin extends JavaPlugin implements Config {
             return;
         }
 
-        versionAdapter.init(this, (player, integer) ->
-                this.getServer().getScheduler().runTask(this, () ->
-                        visualizationController.entityClick(player, integer)));
         versionAdapter.init(this, (player, integer) -> {
+            if (!visualizationController.isClickable(integer)) {
+                // Not a frame of an active visualization, e.g. an item display. Don't bother the main thread.
+                return;
+            }
             Runnable cmd = () -> visualizationController.entityClick(player, integer);
             FoliaUtil.runIfFolia(
                     () -> FoliaUtil.scheduleOnEntity(VisualCraftingPlugin.this, player, cmd, 0),
@@ -126,15 +148,39 @@ public class VisualCraftingPlugin extends JavaPlugin implements Config {
             );
         });
 
+        this.versionAdapter = versionAdapter;
+        if (this.enablePacketListening()) {
+            // Players that were already online (e.g. after a reload) would otherwise not be injected
+            Bukkit.getOnlinePlayers().forEach(versionAdapter::inject);
+        }
+
+        // Flush every connection that received deferred packets and catch up slow connections once per tick
+        FoliaUtil.runIfFolia(
+                () -> FoliaUtil.scheduleOnServerAtFixedRate(this, versionAdapter::flushPackets, 1, 1),
+                () -> this.getServer().getScheduler().runTaskTimer(this, versionAdapter::flushPackets, 1, 1)
+        );
+        // Destroy hidden entities that were not reused
+        FoliaUtil.runIfFolia(
+                () -> FoliaUtil.scheduleOnServerAtFixedRate(this, visualizationController::trimPool, 20, 20),
+                () -> this.getServer().getScheduler().runTaskTimer(this, visualizationController::trimPool, 20, 20)
+        );
+
         this.getServer().getPluginManager().registerEvents(new CancelCraftingListener(visualizationController), this);
         this.getServer().getPluginManager().registerEvents(new PlayerJoinListener(this, versionAdapter), this);
+        this.getServer().getPluginManager().registerEvents(new PlayerQuitListener(versionAdapter), this);
+        this.getServer().getPluginManager().registerEvents(new PlayerWorldChangeListener(versionAdapter), this);
+        this.getServer().getPluginManager().registerEvents(new PlayerPositionListener(playerIndex, viewerTracker), this);
 
         if (getConfig().getBoolean("only-visualize-recipes", false)) {
             // Only visualize valid recipes
             this.getServer().getPluginManager().registerEvents(new PreItemCraftListener(this, visualizationController), this);
         } else {
-            // Visualize all items
-            this.getServer().getPluginManager().registerEvents(new CraftingInventoryInteractListener(this, visualizationController), this);
+            // Visualize all items, tables are updated at most once per tick
+            final TableUpdateScheduler updateScheduler = new TableUpdateScheduler(this, visualizationController);
+            if (!FoliaUtil.isFolia()) {
+                this.getServer().getScheduler().runTaskTimer(this, updateScheduler::processAll, 1, 1);
+            }
+            this.getServer().getPluginManager().registerEvents(new CraftingInventoryInteractListener(updateScheduler), this);
         }
 
         this.getLogger().info("Visual Crafting was enabled!");
@@ -151,6 +197,19 @@ public class VisualCraftingPlugin extends JavaPlugin implements Config {
                 this.enablePacketListening() ? "True" : "False"));
         metrics.addCustomChart(new SimplePie("render_style", () -> this.normalize(finalRenderType)));
         metrics.addCustomChart(new SimplePie("download_source", this::getDownloadSource));
+        metrics.addCustomChart(new SimplePie("audience_policy", () -> this.normalize(audienceResolver.getPolicy().name())));
+        if (finalRenderType.equals("MAP")) {
+            metrics.addCustomChart(new SimplePie("map_pool_pressure", () ->
+                    (int) (versionAdapter.getMapPoolPressure() * 4) * 25 + "%"));
+        }
+    }
+
+    @Override
+    public void onDisable() {
+        if (this.versionAdapter != null) {
+            // Don't leave our packet listeners behind, they would keep this plugin instance alive
+            this.versionAdapter.uninjectAll();
+        }
     }
 
     public boolean canUse(final Permissible permissible) {
@@ -188,6 +247,44 @@ public class VisualCraftingPlugin extends JavaPlugin implements Config {
         return this.getConfig().getBoolean("enable-packet-listening", true);
     }
 
+    @Override
+    public boolean deferPacketFlush() {
+        return this.getConfig().getBoolean("defer-packet-flush", false);
+    }
+
+    @Override
+    public boolean sharedPacketEncoding() {
+        return this.getConfig().getBoolean("shared-packet-encoding", false);
+    }
+
+    @Override
+    public boolean directDisplayEncoding() {
+        return this.getConfig().getBoolean("direct-display-encoding", false);
+    }
+
+    @Override
+    public int mapPoolSize() {
+        return this.getConfig().getInt("map-pool-size", 32);
+    }
+
+    private AudiencePolicy getAudiencePolicy() {
+        final String policy = this.getConfig().getString("audience.policy", "NEARBY");
+        try {
+            return AudiencePolicy.valueOf(policy.toUpperCase());
+        } catch (final IllegalArgumentException e) {
+            this.getLogger().warning("Unknown audience policy '%s'. Falling back to 'NEARBY'".formatted(policy));
+            return AudiencePolicy.NEARBY;
+        }
+    }
+
+    private int getAudienceChunkRadius() {
+        final int radius = this.getConfig().getInt("audience.radius", 0);
+        if (radius <= 0) {
+            return Bukkit.getViewDistance();
+        }
+        return (radius + 15) / 16;
+    }
+
     private String normalize(final String s) {
         if (s.length() <= 1) {
             return s;
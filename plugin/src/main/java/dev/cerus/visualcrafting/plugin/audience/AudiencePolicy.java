@@ -0,0 +1,18 @@
+package dev.cerus.visualcrafting.plugin.audience;
+
+/**
+ * Decides which players get to see a visualization
+ */
+public enum AudiencePolicy {
+
+    /**
+     * Players in the same world within the configured radius
+     */
+    NEARBY,
+
+    /**
+     * Only the crafting player
+     */
+    CRAFTER
+
+}
@@ -0,0 +1,69 @@
+package dev.cerus.visualcrafting.plugin.audience;
+
+import dev.cerus.visualcrafting.api.version.Audience;
+import org.bukkit.block.Block;
+import org.bukkit.entity.Player;
+
+/**
+ * Resolves the audience of a crafting table's visualization
+ */
+public class AudienceResolver {
+
+    private final AudiencePolicy policy;
+    private final ViewerTracker viewerTracker;
+
+    /**
+     * @param policy        The audience policy
+     * @param viewerTracker The viewer tracker used for the nearby policy
+     */
+    public AudienceResolver(final AudiencePolicy policy, final ViewerTracker viewerTracker) {
+        this.policy = policy;
+        this.viewerTracker = viewerTracker;
+    }
+
+    /**
+     * Get the players that should see a new visualization
+     *
+     * @param craftingTable The crafting table
+     * @param crafter       The crafting player
+     * @param viewable      The visualization
+     *
+     * @return The visualization's viewers. Reflects later viewer changes.
+     */
+    public Audience track(final Block craftingTable, final Player crafter, final ViewerTracker.Viewable viewable) {
+        if (this.policy == AudiencePolicy.CRAFTER) {
+            return Audience.of(crafter);
+        }
+        return this.viewerTracker.track(craftingTable, viewable);
+    }
+
+    /**
+     * Get the players that can currently see a visualization which is about to be removed
+     *
+     * @param crafter  The crafting player
+     * @param viewable The visualization
+     *
+     * @return The visualization's last viewers
+     */
+    public Audience untrack(final Player crafter, final ViewerTracker.Viewable viewable) {
+        if (this.policy == AudiencePolicy.CRAFTER) {
+            return Audience.of(crafter);
+        }
+        return Audience.of(this.viewerTracker.untrack(viewable));
+    }
+
+    /**
+     * Check if the viewers of a visualization are independent of its crafter, which allows
+     * another crafter to take the visualization over
+     *
+     * @return True if visualizations can be reused by other crafters
+     */
+    public boolean isCrafterIndependent() {
+        return this.policy != AudiencePolicy.CRAFTER;
+    }
+
+    public AudiencePolicy getPolicy() {
+        return this.policy;
+    }
+
+}
@@ -0,0 +1,85 @@
+package dev.cerus.visualcrafting.plugin.audience;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Thread safe multimap of values bucketed by world and chunk
+ *
+ * @param <T> The value type
+ */
+class ChunkBuckets<T> {
+
+    private final Map<UUID, Map<Long, Set<T>>> worlds = new ConcurrentHashMap<>();
+
+    /**
+     * Get the key of a chunk
+     *
+     * @param chunkX The chunk's x coordinate
+     * @param chunkZ The chunk's z coordinate
+     *
+     * @return The chunk key
+     */
+    static long chunkKey(final int chunkX, final int chunkZ) {
+        return ((long) chunkX << 32) | (chunkZ & 0xFFFFFFFFL);
+    }
+
+    void add(final ChunkPosition position, final T value) {
+        this.worlds.computeIfAbsent(position.worldId(), id -> new ConcurrentHashMap<>())
+                .compute(position.key(), (key, bucket) -> {
+                    final Set<T> values = bucket == null ? ConcurrentHashMap.newKeySet() : bucket;
+                    values.add(value);
+                    return values;
+                });
+    }
+
+    void remove(final ChunkPosition position, final T value) {
+        final Map<Long, Set<T>> chunks = this.worlds.get(position.worldId());
+        if (chunks == null) {
+            return;
+        }
+        // Done inside of compute so that a concurrent insert can't end up in a dropped bucket
+        chunks.computeIfPresent(position.key(), (key, bucket) -> {
+            bucket.remove(value);
+            return bucket.isEmpty() ? null : bucket;
+        });
+    }
+
+    /**
+     * Call an action for every value whose chunk is at most the given amount of chunks away from a chunk
+     *
+     * @param center The center chunk
+     * @param radius The radius in chunks
+     * @param action The action
+     */
+    void forEachNear(final ChunkPosition center, final int radius, final Consumer<T> action) {
+        final Map<Long, Set<T>> chunks = this.worlds.get(center.worldId());
+        if (chunks == null || chunks.isEmpty()) {
+            return;
+        }
+
+        final int side = radius * 2 + 1;
+        if (chunks.size() < side * side) {
+            // Fewer occupied chunks than chunks in range, checking the occupied ones is cheaper
+            for (final Map.Entry<Long, Set<T>> entry : chunks.entrySet()) {
+                final long key = entry.getKey();
+                if (Math.abs((int) (key >> 32) - center.chunkX()) <= radius && Math.abs((int) key - center.chunkZ()) <= radius) {
+                    entry.getValue().forEach(action);
+                }
+            }
+        } else {
+            for (int x = center.chunkX() - radius; x <= center.chunkX() + radius; x++) {
+                for (int z = center.chunkZ() - radius; z <= center.chunkZ() + radius; z++) {
+                    final Set<T> bucket = chunks.get(chunkKey(x, z));
+                    if (bucket != null) {
+                        bucket.forEach(action);
+                    }
+                }
+            }
+        }
+    }
+
+}
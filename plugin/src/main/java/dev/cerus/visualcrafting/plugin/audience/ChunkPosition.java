@@ -0,0 +1,47 @@
+package dev.cerus.visualcrafting.plugin.audience;
+
+import java.util.UUID;
+import org.bukkit.Location;
+import org.bukkit.block.Block;
+
+/**
+ * A chunk in a world
+ *
+ * @param worldId The world's id
+ * @param chunkX  The chunk's x coordinate
+ * @param chunkZ  The chunk's z coordinate
+ */
+public record ChunkPosition(UUID worldId, int chunkX, int chunkZ) {
+
+    /**
+     * Placeholder for players that were not indexed yet, is never in range of anything
+     */
+    public static final ChunkPosition NONE = new ChunkPosition(new UUID(0, 0), Integer.MIN_VALUE, Integer.MIN_VALUE);
+
+    public static ChunkPosition of(final Location location) {
+        return new ChunkPosition(location.getWorld().getUID(), location.getBlockX() >> 4, location.getBlockZ() >> 4);
+    }
+
+    public static ChunkPosition of(final Block block) {
+        return new ChunkPosition(block.getWorld().getUID(), block.getX() >> 4, block.getZ() >> 4);
+    }
+
+    /**
+     * Check if another chunk is at most the given amount of chunks away from this chunk
+     *
+     * @param other  The other chunk
+     * @param radius The radius in chunks
+     *
+     * @return True if the other chunk is in range
+     */
+    public boolean isInRange(final ChunkPosition other, final int radius) {
+        return this.worldId.equals(other.worldId)
+               && Math.abs(this.chunkX - other.chunkX) <= radius
+               && Math.abs(this.chunkZ - other.chunkZ) <= radius;
+    }
+
+    long key() {
+        return ChunkBuckets.chunkKey(this.chunkX, this.chunkZ);
+    }
+
+}
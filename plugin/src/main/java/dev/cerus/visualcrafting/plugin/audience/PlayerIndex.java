@@ -0,0 +1,85 @@
+package dev.cerus.visualcrafting.plugin.audience;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import org.bukkit.Location;
+import org.bukkit.entity.Player;
+
+/**
+ * Keeps track of the chunk every online player is in, bucketed by world and chunk
+ * <p>
+ * Finding the players around a crafting table only touches the chunks around it instead
+ * of every online player. The index is safe to use from multiple threads.
+ */
+public class PlayerIndex {
+
+    private final ChunkBuckets<Player> buckets = new ChunkBuckets<>();
+    private final Map<UUID, ChunkPosition> positions = new ConcurrentHashMap<>();
+
+    /**
+     * Update the position of a player
+     *
+     * @param player   The player
+     * @param location The player's new location
+     *
+     * @return The player's previous position if the player has changed chunks, or null otherwise.
+     * {@link ChunkPosition#NONE} is returned if the player was not indexed before.
+     */
+    public ChunkPosition update(final Player player, final Location location) {
+        final ChunkPosition position = ChunkPosition.of(location);
+        final ChunkPosition previous = this.positions.put(player.getUniqueId(), position);
+        if (position.equals(previous)) {
+            return null;
+        }
+
+        if (previous != null) {
+            this.buckets.remove(previous, player);
+        }
+        this.buckets.add(position, player);
+        return previous == null ? ChunkPosition.NONE : previous;
+    }
+
+    /**
+     * Remove a player from the index
+     *
+     * @param player The player
+     *
+     * @return The player's last position or null if the player was not indexed
+     */
+    public ChunkPosition remove(final Player player) {
+        final ChunkPosition previous = this.positions.remove(player.getUniqueId());
+        if (previous != null) {
+            this.buckets.remove(previous, player);
+        }
+        return previous;
+    }
+
+    /**
+     * Get the last known position of a player
+     *
+     * @param player The player
+     *
+     * @return The player's position or null if the player is not indexed
+     */
+    public ChunkPosition getPosition(final Player player) {
+        return this.positions.get(player.getUniqueId());
+    }
+
+    /**
+     * Get every player whose chunk is at most the given amount of chunks away from a chunk
+     *
+     * @param center The center chunk
+     * @param radius The radius in chunks
+     *
+     * @return The players in range
+     */
+    public List<Player> getPlayersNear(final ChunkPosition center, final int radius) {
+        final List<Player> players = new ArrayList<>();
+        this.buckets.forEachNear(center, radius, players::add);
+        return players;
+    }
+
+}
@@ -0,0 +1,136 @@
+package dev.cerus.visualcrafting.plugin.audience;
+
+import dev.cerus.visualcrafting.api.version.Audience;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.bukkit.block.Block;
+import org.bukkit.entity.Player;
+
+/**
+ * Keeps track of which players can see which visualization
+ * <p>
+ * Players that come into range of a visualization get its current state replayed, players that
+ * leave the range get it removed. The work is driven by chunk changes of players, so only the
+ * visualizations around the old and the new chunk are looked at.
+ */
+public class ViewerTracker {
+
+    private final ChunkBuckets<Tracked> buckets = new ChunkBuckets<>();
+    private final Map<Viewable, Tracked> tracked = new ConcurrentHashMap<>();
+    private final PlayerIndex playerIndex;
+    private final int chunkRadius;
+
+    /**
+     * @param playerIndex The player index
+     * @param chunkRadius The view radius in chunks
+     */
+    public ViewerTracker(final PlayerIndex playerIndex, final int chunkRadius) {
+        this.playerIndex = playerIndex;
+        this.chunkRadius = chunkRadius;
+    }
+
+    /**
+     * Start tracking the viewers of a visualization
+     *
+     * @param block    The block of the visualization
+     * @param viewable The visualization
+     *
+     * @return The visualization's viewers. Reflects later viewer changes.
+     */
+    public Audience track(final Block block, final Viewable viewable) {
+        final Tracked entry = new Tracked(viewable, ChunkPosition.of(block));
+        this.tracked.put(viewable, entry);
+        // Register before collecting the viewers, a player moving in concurrently is then picked up by at least one side
+        this.buckets.add(entry.position, entry);
+        entry.viewers.addAll(this.playerIndex.getPlayersNear(entry.position, this.chunkRadius));
+        return Audience.of(entry.viewers);
+    }
+
+    /**
+     * Stop tracking the viewers of a visualization
+     *
+     * @param viewable The visualization
+     *
+     * @return The players that could see the visualization
+     */
+    public Set<Player> untrack(final Viewable viewable) {
+        final Tracked entry = this.tracked.remove(viewable);
+        if (entry == null) {
+            return Collections.emptySet();
+        }
+        this.buckets.remove(entry.position, entry);
+        return new HashSet<>(entry.viewers);
+    }
+
+    /**
+     * A player has moved into another chunk
+     *
+     * @param player The player
+     * @param from   The previous chunk
+     * @param to     The new chunk
+     */
+    public void playerMoved(final Player player, final ChunkPosition from, final ChunkPosition to) {
+        // Everything that could have been in range before or can be in range now
+        this.buckets.forEachNear(from, this.chunkRadius, entry -> this.updateViewer(entry, player, to));
+        this.buckets.forEachNear(to, this.chunkRadius, entry -> this.updateViewer(entry, player, to));
+    }
+
+    /**
+     * A player has left the server
+     *
+     * @param player The player
+     * @param last   The player's last chunk
+     */
+    public void playerQuit(final Player player, final ChunkPosition last) {
+        // The client is gone, nothing to despawn
+        this.buckets.forEachNear(last, this.chunkRadius, entry -> entry.viewers.remove(player));
+    }
+
+    private void updateViewer(final Tracked entry, final Player player, final ChunkPosition position) {
+        if (entry.position.isInRange(position, this.chunkRadius)) {
+            if (entry.viewers.add(player)) {
+                entry.viewable.show(Audience.of(player));
+            }
+        } else if (entry.viewers.remove(player)) {
+            entry.viewable.hide(Audience.of(player));
+        }
+    }
+
+    /**
+     * Something that can be shown to and hidden from single players
+     */
+    public interface Viewable {
+
+        /**
+         * Send the current state to players that could not see it before
+         *
+         * @param audience The new viewers
+         */
+        void show(Audience audience);
+
+        /**
+         * Remove this from the view of players that have left the range
+         *
+         * @param audience The former viewers
+         */
+        void hide(Audience audience);
+
+    }
+
+    private static final class Tracked {
+
+        private final Viewable viewable;
+        private final ChunkPosition position;
+        private final Set<Player> viewers = ConcurrentHashMap.newKeySet();
+
+        private Tracked(final Viewable viewable, final ChunkPosition position) {
+            this.viewable = viewable;
+            this.position = position;
+        }
+
+    }
+
+}
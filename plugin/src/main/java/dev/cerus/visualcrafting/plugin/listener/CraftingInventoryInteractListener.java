@@ -1,11 +1,6 @@
 package dev.cerus.visualcrafting.plugin.listener;
 
-import dev.cerus.visualcrafting.folia.FoliaUtil;
-import dev.cerus.visualcrafting.plugin.VisualCraftingPlugin;
-import dev.cerus.visualcrafting.plugin.visualizer.VisualizationController;
-import java.util.Arrays;
-import java.util.Objects;
-import org.bukkit.Bukkit;
+import dev.cerus.visualcrafting.plugin.visualizer.TableUpdateScheduler;
 import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.Listener;
@@ -14,15 +9,12 @@ import org.bukkit.event.inventory.InventoryDragEvent;
 import org.bukkit.event.inventory.PrepareItemCraftEvent;
 import org.bukkit.inventory.CraftingInventory;
 import org.bukkit.inventory.InventoryView;
-import org.bukkit.inventory.ItemStack;
 
 public class CraftingInventoryInteractListener implements Listener {
-    private final VisualCraftingPlugin plugin;
-    private final VisualizationController visualizationController;
+    private final TableUpdateScheduler updateScheduler;
 
-    public CraftingInventoryInteractListener(VisualCraftingPlugin plugin, VisualizationController visualizationController) {
-        this.plugin = plugin;
-        this.visualizationController = visualizationController;
+    public CraftingInventoryInteractListener(TableUpdateScheduler updateScheduler) {
+        this.updateScheduler = updateScheduler;
     }
 
     @EventHandler
@@ -44,30 +36,15 @@ public class CraftingInventoryInteractListener implements Listener {
         if (!(view.getTopInventory() instanceof CraftingInventory inv)) {
             return;
         }
-        ItemStack[] matrix = inv.getMatrix();
-        if (matrix.length != 9) {
+        if (inv.getSize() != 10) {
             // We only want crafting tables
             return;
         }
+        if (inv.getLocation() == null) {
+            return;
+        }
 
-        Player player = (Player) view.getPlayer();
-        Runnable cmd = () -> {
-            if (!player.isOnline()) {
-                return;
-            }
-
-            if (Arrays.stream(matrix).allMatch(Objects::isNull) && inv.getResult() == null) {
-                this.visualizationController.craftingCancelled(player, inv.getLocation().getBlock());
-            } else {
-                this.visualizationController.recipeSelected(matrix,
-                        inv.getResult(),
-                        player,
-                        inv.getLocation().getBlock());
-            }
-        };
-        FoliaUtil.runIfFolia(
-                () -> FoliaUtil.scheduleOnEntity(plugin, player, cmd, 1),
-                () -> Bukkit.getServer().getScheduler().runTaskLater(plugin, cmd, 1)
-        );
+        // The contents are read on the next tick, after the click was applied
+        this.updateScheduler.markDirty((Player) view.getPlayer(), inv, inv.getLocation().getBlock());
     }
 }
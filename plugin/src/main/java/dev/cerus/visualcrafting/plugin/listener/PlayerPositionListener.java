@@ -0,0 +1,79 @@
+package dev.cerus.visualcrafting.plugin.listener;
+
+import dev.cerus.visualcrafting.plugin.audience.ChunkPosition;
+import dev.cerus.visualcrafting.plugin.audience.PlayerIndex;
+import dev.cerus.visualcrafting.plugin.audience.ViewerTracker;
+import org.bukkit.Location;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerChangedWorldEvent;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerMoveEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.event.player.PlayerRespawnEvent;
+import org.bukkit.event.player.PlayerTeleportEvent;
+
+public class PlayerPositionListener implements Listener {
+
+    private final PlayerIndex playerIndex;
+    private final ViewerTracker viewerTracker;
+
+    public PlayerPositionListener(final PlayerIndex playerIndex, final ViewerTracker viewerTracker) {
+        this.playerIndex = playerIndex;
+        this.viewerTracker = viewerTracker;
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onJoin(final PlayerJoinEvent event) {
+        this.update(event.getPlayer(), event.getPlayer().getLocation());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onQuit(final PlayerQuitEvent event) {
+        final ChunkPosition last = this.playerIndex.remove(event.getPlayer());
+        if (last != null) {
+            this.viewerTracker.playerQuit(event.getPlayer(), last);
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onMove(final PlayerMoveEvent event) {
+        final Location from = event.getFrom();
+        final Location to = event.getTo();
+        // Most moves stay inside of a chunk, don't bother the index with those
+        if (to == null || (from.getBlockX() >> 4 == to.getBlockX() >> 4 && from.getBlockZ() >> 4 == to.getBlockZ() >> 4)) {
+            return;
+        }
+        this.update(event.getPlayer(), to);
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onTeleport(final PlayerTeleportEvent event) {
+        final Location to = event.getTo();
+        // Packets sent before a world change would end up in the old world, the world change handler takes care of those
+        if (to != null && to.getWorld() == event.getFrom().getWorld()) {
+            this.update(event.getPlayer(), to);
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onRespawn(final PlayerRespawnEvent event) {
+        this.update(event.getPlayer(), event.getRespawnLocation());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onWorldChange(final PlayerChangedWorldEvent event) {
+        this.update(event.getPlayer(), event.getPlayer().getLocation());
+    }
+
+    private void update(final Player player, final Location location) {
+        final ChunkPosition previous = this.playerIndex.update(player, location);
+        if (previous != null) {
+            // Only chunk changes can bring visualizations into or out of range
+            this.viewerTracker.playerMoved(player, previous, ChunkPosition.of(location));
+        }
+    }
+
+}
@@ -0,0 +1,22 @@
+package dev.cerus.visualcrafting.plugin.listener;
+
+import dev.cerus.visualcrafting.api.version.VersionAdapter;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerQuitEvent;
+
+public class PlayerQuitListener implements Listener {
+
+    private final VersionAdapter versionAdapter;
+
+    public PlayerQuitListener(final VersionAdapter versionAdapter) {
+        this.versionAdapter = versionAdapter;
+    }
+
+    @EventHandler
+    public void onQuit(final PlayerQuitEvent event) {
+        this.versionAdapter.uninject(event.getPlayer());
+        this.versionAdapter.forgetMapVersions(event.getPlayer());
+    }
+
+}
@@ -0,0 +1,24 @@
+package dev.cerus.visualcrafting.plugin.listener;
+
+import dev.cerus.visualcrafting.api.version.VersionAdapter;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerChangedWorldEvent;
+
+public class PlayerWorldChangeListener implements Listener {
+
+    private final VersionAdapter versionAdapter;
+
+    public PlayerWorldChangeListener(final VersionAdapter versionAdapter) {
+        this.versionAdapter = versionAdapter;
+    }
+
+    // Before the position listener replays the visualizations of the new world
+    @EventHandler(priority = EventPriority.LOWEST)
+    public void onWorldChange(final PlayerChangedWorldEvent event) {
+        // The client drops all map contents when it switches worlds
+        this.versionAdapter.forgetMapVersions(event.getPlayer());
+    }
+
+}
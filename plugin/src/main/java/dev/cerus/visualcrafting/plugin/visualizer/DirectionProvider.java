@@ -1,18 +1,15 @@
 package dev.cerus.visualcrafting.plugin.visualizer;
 
-import java.util.Comparator;
-import java.util.Map;
+import org.bukkit.Location;
 import org.bukkit.block.BlockFace;
+import org.bukkit.entity.Entity;
 
 public class DirectionProvider {
 
-    private final static Map<Integer, BlockFace> DIRECTION_MAP = Map.of(
-            0, BlockFace.SOUTH,
-            360, BlockFace.SOUTH,
-            90, BlockFace.WEST,
-            180, BlockFace.NORTH,
-            270, BlockFace.EAST
-    );
+    // Indexed by the closest multiple of 90 degrees
+    private static final BlockFace[] DIRECTIONS = {BlockFace.SOUTH, BlockFace.WEST, BlockFace.NORTH, BlockFace.EAST};
+    // Reused for reading entity locations, entities can be handled by several threads on Folia
+    private static final ThreadLocal<Location> LOCATION = ThreadLocal.withInitial(() -> new Location(null, 0, 0, 0));
 
     private DirectionProvider() {
     }
@@ -26,15 +23,18 @@ public class DirectionProvider {
      */
     public static BlockFace getDirection(final float yaw) {
         final int yawInt = (int) (yaw < 0 ? 180 + (180 - -yaw) : yaw);
-        return DIRECTION_MAP.entrySet().stream()
-                .map(e -> {
-                    final double diff = (double) Math.max(yawInt, e.getKey()) - Math.min(yawInt, e.getKey());
-                    return Map.entry(diff, e);
-                })
-                .sorted(Comparator.comparingDouble(Map.Entry::getKey))
-                .map(e -> e.getValue().getValue())
-                .findFirst()
-                .orElseThrow();
+        return DIRECTIONS[Math.floorMod(Math.floorDiv(yawInt + 45, 90), DIRECTIONS.length)];
+    }
+
+    /**
+     * Calculate the direction an entity is looking in
+     *
+     * @param entity The entity
+     *
+     * @return The direction
+     */
+    public static BlockFace getDirection(final Entity entity) {
+        return getDirection(entity.getLocation(LOCATION.get()).getYaw());
     }
 
 }
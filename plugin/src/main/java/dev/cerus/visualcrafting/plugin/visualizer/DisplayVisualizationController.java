@@ -1,27 +1,39 @@
 package dev.cerus.visualcrafting.plugin.visualizer;
 
-import dev.cerus.visualcrafting.api.math.MatrixMath;
+import dev.cerus.visualcrafting.api.math.DisplayTransformation;
+import dev.cerus.visualcrafting.api.util.ConcurrentLongMap;
+import dev.cerus.visualcrafting.api.util.LongMap;
+import dev.cerus.visualcrafting.api.version.Audience;
 import dev.cerus.visualcrafting.api.version.FakeItemDisplay;
 import dev.cerus.visualcrafting.api.version.Feature;
 import dev.cerus.visualcrafting.api.version.VersionAdapter;
+import dev.cerus.visualcrafting.folia.FoliaUtil;
 import static dev.cerus.visualcrafting.plugin.visualizer.DirectionProvider.getDirection;
-import java.util.HashMap;
-import java.util.Map;
+import dev.cerus.visualcrafting.plugin.audience.AudienceResolver;
+import dev.cerus.visualcrafting.plugin.audience.ViewerTracker;
+import java.util.Arrays;
 import org.bukkit.Location;
 import org.bukkit.Material;
 import org.bukkit.block.Block;
 import org.bukkit.block.BlockFace;
 import org.bukkit.entity.Player;
 import org.bukkit.inventory.ItemStack;
-import org.joml.Matrix3f;
+import org.joml.Quaternionf;
+import org.joml.Vector3f;
 
 public class DisplayVisualizationController implements VisualizationController {
 
-    private final Map<Long, Visualization<DisplayGrid>> visualizationMap = new HashMap<>();
+    private static final ItemStack[] EMPTY_MATRIX = new ItemStack[3 * 3];
+
+    private final LongMap<Visualization<DisplayGrid>> visualizationMap = FoliaUtil.isFolia() ? new ConcurrentLongMap<>() : new LongMap<>();
     private final VersionAdapter versionAdapter;
+    private final AudienceResolver audienceResolver;
+    private final EntityPool entityPool;
 
-    public DisplayVisualizationController(final VersionAdapter versionAdapter) {
+    public DisplayVisualizationController(final VersionAdapter versionAdapter, final AudienceResolver audienceResolver, final EntityPool entityPool) {
         this.versionAdapter = versionAdapter;
+        this.audienceResolver = audienceResolver;
+        this.entityPool = entityPool;
     }
 
     @Override
@@ -34,6 +46,11 @@ public class DisplayVisualizationController implements VisualizationController {
         // no op
     }
 
+    @Override
+    public boolean isClickable(final int eid) {
+        return false;
+    }
+
     @Override
     public void recipeSelected(final ItemStack[] matrix, final ItemStack result, final Player actor, final Block craftingTable) {
         if (!craftingTable.getRelative(BlockFace.UP).getType().isTransparent()) {
@@ -41,44 +58,130 @@ public class DisplayVisualizationController implements VisualizationController {
         }
 
         final long key = this.getBlockKey(craftingTable);
-        if (!this.visualizationMap.containsKey(key)) {
-            final DisplayGrid displayGrid = new DisplayGrid();
+        final BlockFace facing = getDirection(actor).getOppositeFace();
+        while (true) {
+            final Visualization<DisplayGrid> existing = this.visualizationMap.get(key);
+            if (existing == null) {
+                if (this.createVisualization(key, matrix, result, actor, craftingTable, facing)) {
+                    return;
+                }
+                // Created by another region in the meantime, use that one
+            } else if (this.updateVisualization(existing, matrix, result, actor, facing)) {
+                return;
+            }
+            // Otherwise trimmed before we got hold of it, start over
+        }
+    }
+
+    /**
+     * Creates the visualization of a crafting table. Nothing is spawned unless the visualization is the one
+     * that ended up in the map.
+     *
+     * @return False if the table already had a visualization
+     */
+    private boolean createVisualization(final long key,
+                                        final ItemStack[] matrix,
+                                        final ItemStack result,
+                                        final Player actor,
+                                        final Block craftingTable,
+                                        final BlockFace facing) {
+        final DisplayGrid displayGrid = new DisplayGrid(this.versionAdapter, this.entityPool);
+        final Visualization<DisplayGrid> visualization = new Visualization<>(craftingTable, actor, displayGrid, null);
+        // Held until the displays are spawned, other regions that find the visualization wait for it
+        synchronized (visualization) {
+            if (this.visualizationMap.getOrCreate(key, k -> visualization) != visualization) {
+                return false;
+            }
+
             displayGrid.setItems(matrix, result);
-            displayGrid.adjustTo(craftingTable.getLocation().clone().add(0, 1, 0),
-                    getDirection(actor.getLocation().getYaw()).getOppositeFace());
-            final Visualization<DisplayGrid> visualization = new Visualization<>(craftingTable, actor, displayGrid);
-            this.visualizationMap.put(key, visualization);
-            displayGrid.spawnDisplays(this.versionAdapter);
-            displayGrid.updateDisplays(this.versionAdapter);
-        } else {
-            final Visualization<DisplayGrid> visualization = this.visualizationMap.get(key);
-            if (!visualization.player.getUniqueId().equals(actor.getUniqueId())) {
+            displayGrid.adjustTo(craftingTable.getLocation().add(0, 1, 0), facing);
+            visualization.viewers = this.audienceResolver.track(craftingTable, actor, displayGrid);
+            visualization.fingerprint.update(matrix, result, facing);
+            displayGrid.updateDisplays(visualization.viewers);
+            return true;
+        }
+    }
+
+    /**
+     * Shows a new recipe on an existing visualization
+     *
+     * @return False if the visualization was removed in the meantime
+     */
+    private boolean updateVisualization(final Visualization<DisplayGrid> visualization,
+                                        final ItemStack[] matrix,
+                                        final ItemStack result,
+                                        final Player actor,
+                                        final BlockFace facing) {
+        synchronized (visualization) {
+            if (visualization.removed) {
+                return false;
+            }
+            if (visualization.player == null) {
+                // Hidden after the last crafter left, take it over
+                visualization.player = actor;
+            } else if (!visualization.player.getUniqueId().equals(actor.getUniqueId())) {
                 // Someone else is using this crafting table
-                return;
+                return true;
+            }
+            if (!visualization.fingerprint.update(matrix, result, facing)) {
+                // Nothing changed since the last render
+                return true;
             }
 
             final DisplayGrid displayGrid = visualization.obj;
             displayGrid.setItems(matrix, result);
-            displayGrid.adjustTo(craftingTable.getLocation().clone().add(0, 1, 0),
-                    getDirection(actor.getLocation().getYaw()).getOppositeFace());
-            displayGrid.updateDisplays(this.versionAdapter);
+            // Same table, so only the facing can have changed
+            displayGrid.setFacing(facing);
+            displayGrid.updateDisplays(visualization.viewers);
+            return true;
         }
     }
 
     @Override
     public void craftingCancelled(final Player actor, final Block craftingTable) {
         final long key = this.getBlockKey(craftingTable);
-        if (!this.visualizationMap.containsKey(key)) {
+        final Visualization<DisplayGrid> visualization = this.visualizationMap.get(key);
+        if (visualization == null) {
             return;
         }
 
-        final Visualization<DisplayGrid> visualization = this.visualizationMap.get(key);
-        if (!visualization.player.getUniqueId().equals(actor.getUniqueId())) {
-            return;
+        synchronized (visualization) {
+            if (visualization.player == null || !visualization.player.getUniqueId().equals(actor.getUniqueId())) {
+                return;
+            }
+
+            if (this.audienceResolver.isCrafterIndependent()) {
+                // Empty the grid, its entities are hidden as long as the pool has room
+                visualization.player = null;
+                visualization.fingerprint.reset();
+                visualization.obj.setItems(EMPTY_MATRIX, null);
+                visualization.obj.updateDisplays(visualization.viewers);
+                if (!visualization.obj.isEmpty()) {
+                    return;
+                }
+            }
+
+            visualization.removed = true;
+            this.visualizationMap.remove(key, visualization);
+            visualization.obj.destroyDisplays(this.audienceResolver.untrack(actor, visualization.obj));
         }
+    }
 
-        this.visualizationMap.remove(key);
-        visualization.obj.destroyDisplays(this.versionAdapter);
+    @Override
+    public void trimPool() {
+        final long now = System.nanoTime();
+        this.visualizationMap.removeIf(visualization -> {
+            // The table might be taken over on its region right now
+            synchronized (visualization) {
+                visualization.obj.trim(visualization.viewers, now);
+                if (visualization.player == null && visualization.obj.isEmpty()) {
+                    visualization.removed = true;
+                    this.audienceResolver.untrack(null, visualization.obj);
+                    return true;
+                }
+                return false;
+            }
+        });
     }
 
     private long getBlockKey(final Block block) {
@@ -90,58 +193,337 @@ public class DisplayVisualizationController implements VisualizationController {
         return ((long) x & 0x7FFFFFF) | (((long) z & 0x7FFFFFF) << 27) | ((long) y << 54);
     }
 
-    private static class DisplayGrid {
+    private static class DisplayGrid implements ViewerTracker.Viewable {
 
         private static final double PIXEL_SIZE = 1d / 16d;
         private static final double FIRST_PIXEL_OFF = PIXEL_SIZE * 5;
         private static final double PIXEL_OFF = PIXEL_SIZE * 3;
+        private static final float SCALE = 0.18f;
         private static final ItemStack AIR = new ItemStack(Material.AIR);
 
-        private final FakeItemDisplay[] craftingMatrix = new FakeItemDisplay[3 * 3 * 3];
+        private static final int RESULT_INDEX = 3 * 3;
+        private static final int CELLS = 3 * 3 + 1;
+        // Every cell and every hidden entity
+        private static final int MAX_ENTITIES = CELLS * 2;
+        private static final int NO_ENTITY = -1;
+
+        // Every possible transformation, indexed by facing and cell. There are only four facings and ten cells,
+        // so we can compute all of them once and never have to do any matrix maths during updates.
+        private static final BlockFace[] FACINGS = {BlockFace.NORTH, BlockFace.EAST, BlockFace.SOUTH, BlockFace.WEST};
+        private static final DisplayTransformation[][] TRANSFORMATIONS = createTransformations();
+
+        // Matrix cells followed by the result, so the grid can be handed to the bulk adapter methods as is
+        private final FakeItemDisplay[] displays = new FakeItemDisplay[3 * 3 + 1];
         private final FakeItemDisplay craftingResult;
-        private final int[] matrixEids = new int[3 * 3 * 3];
-        private int resultEid;
+        private final VersionAdapter versionAdapter;
+        private final EntityPool entityPool;
+        // Entity id of every cell, empty cells are not spawned
+        private final int[] cellEids = new int[3 * 3 + 1];
+        // Entities without an item that are kept for reuse, ordered by the time they were hidden
+        private final int[] hiddenEids = new int[3 * 3 + 1];
+        private final FakeItemDisplay[] hiddenDisplays = new FakeItemDisplay[3 * 3 + 1];
+        private final long[] hiddenSince = new long[3 * 3 + 1];
+        private int hiddenCount;
+        // Displays of hidden entities that are not in use anymore
+        private final FakeItemDisplay[] spareDisplays = new FakeItemDisplay[3 * 3 + 1];
+        private int spareCount;
+        // Scratch space for entities of cells that became empty and cells that need new entities
+        private final int[] freedEids = new int[3 * 3 + 1];
+        private final int[] freedCells = new int[3 * 3 + 1];
+        private final int[] spawnCells = new int[3 * 3 + 1];
+        // Scratch arrays for the adapter, indexed by their length. The adapter does not keep them after the call.
+        private final int[][] idScratch = new int[MAX_ENTITIES + 1][];
+        private final FakeItemDisplay[][] displayScratch = new FakeItemDisplay[MAX_ENTITIES + 1][];
+        // Replaced as a whole, so that viewers that enter or leave never see a half updated grid
+        private volatile SpawnedCells spawnedCells = SpawnedCells.NONE;
+
+        public DisplayGrid(final VersionAdapter versionAdapter, final EntityPool entityPool) {
+            this.versionAdapter = versionAdapter;
+            this.entityPool = entityPool;
+            for (int i = 0; i < this.displays.length; i++) {
+                this.displays[i] = new FakeItemDisplay(null, AIR, TRANSFORMATIONS[0][i], FakeItemDisplay.Transform.GUI);
+                this.cellEids[i] = NO_ENTITY;
+            }
+            this.craftingResult = this.displays[RESULT_INDEX];
+        }
 
-        public DisplayGrid() {
+        private static DisplayTransformation[][] createTransformations() {
+            final Vector3f scale = new Vector3f(SCALE, SCALE, 0.0001f);
+            final DisplayTransformation[][] transformations = new DisplayTransformation[FACINGS.length][];
+            for (int i = 0; i < FACINGS.length; i++) {
+                final Quaternionf rotation = new Quaternionf()
+                        .rotateX((float) Math.toRadians(90))
+                        .rotateZ((float) Math.toRadians(i * 90));
+                transformations[i] = switch (FACINGS[i]) {
+                    case NORTH -> createTransformations(rotation, scale, 1 - FIRST_PIXEL_OFF, 0, -PIXEL_OFF, 1 - FIRST_PIXEL_OFF, -PIXEL_OFF, 0);
+                    case EAST -> createTransformations(rotation, scale, FIRST_PIXEL_OFF, PIXEL_OFF, 0, 1 - FIRST_PIXEL_OFF, 0, -PIXEL_OFF);
+                    case SOUTH -> createTransformations(rotation, scale, FIRST_PIXEL_OFF, 0, PIXEL_OFF, FIRST_PIXEL_OFF, PIXEL_OFF, 0);
+                    case WEST -> createTransformations(rotation, scale, 1 - FIRST_PIXEL_OFF, -PIXEL_OFF, 0, FIRST_PIXEL_OFF, 0, PIXEL_OFF);
+                    default -> throw new UnsupportedOperationException();
+                };
+            }
+            return transformations;
+        }
+
+        private static DisplayTransformation[] createTransformations(final Quaternionf rotation,
+                                                                     final Vector3f scale,
+                                                                     final double startX,
+                                                                     final double addXRow,
+                                                                     final double addXCol,
+                                                                     final double startZ,
+                                                                     final double addZRow,
+                                                                     final double addZCol) {
+            final DisplayTransformation[] transformations = new DisplayTransformation[3 * 3 + 1];
             for (int row = 0; row < 3; row++) {
                 for (int col = 0; col < 3; col++) {
-                    this.setMatrixCell(col, row, this.createDisplay());
+                    final double x = startX + (row * addXRow) + (col * addXCol);
+                    final double z = startZ + (row * addZRow) + (col * addZCol);
+                    transformations[row * 3 + col] = DisplayTransformation.of(new Vector3f((float) x, 0.005f, (float) z), rotation, scale);
                 }
             }
-            this.craftingResult = this.createDisplay();
+
+            final double x = startX + addXCol + ceil(addXRow) * -0.21;
+            final double z = startZ + addZCol + ceil(addZRow) * -0.21;
+            transformations[RESULT_INDEX] = DisplayTransformation.of(new Vector3f((float) x, 0.005f, (float) z), rotation, scale);
+            return transformations;
         }
 
-        private FakeItemDisplay createDisplay() {
-            return new FakeItemDisplay(null, AIR, MatrixMath.rotationX((float) Math.toRadians(90)),
-                    MatrixMath.rotationZ(0f), MatrixMath.translation(0f, 0f, 0f), FakeItemDisplay.Transform.GUI);
+        private static double ceil(final double f) {
+            return f < 0 ? -ceil(-f) : Math.ceil(f);
         }
 
-        public void spawnDisplays(final VersionAdapter versionAdapter) {
-            for (int row = 0; row < 3; row++) {
-                for (int col = 0; col < 3; col++) {
-                    final int eid = versionAdapter.spawnItemDisplay(this.getMatrixCell(col, row));
-                    this.setMatrixEid(col, row, eid);
+        private static boolean isEmpty(final ItemStack itemStack) {
+            return itemStack == null || itemStack.getType().isAir();
+        }
+
+        /**
+         * Bring the spawned displays in line with the grid. Cells that got an item reuse the entity of a
+         * cell that became empty or a hidden entity before new entities are spawned. Left over entities are
+         * hidden as long as the pool has room and destroyed otherwise.
+         *
+         * @param audience The viewers
+         */
+        public synchronized void updateDisplays(final Audience audience) {
+            int freedCount = 0;
+            for (int i = 0; i < this.displays.length; i++) {
+                if (this.cellEids[i] != NO_ENTITY && isEmpty(this.displays[i].getItemStack())) {
+                    this.freedCells[freedCount] = i;
+                    this.freedEids[freedCount++] = this.cellEids[i];
+                    this.cellEids[i] = NO_ENTITY;
                 }
             }
-            this.setResultEid(versionAdapter.spawnItemDisplay(this.craftingResult));
-        }
 
-        public void updateDisplays(final VersionAdapter versionAdapter) {
-            for (int row = 0; row < 3; row++) {
-                for (int col = 0; col < 3; col++) {
-                    versionAdapter.updateItemDisplay(this.getMatrixEid(col, row), this.getMatrixCell(col, row));
+            // The transformation is metadata, so every entity of this grid can show every cell
+            boolean changed = freedCount > 0;
+            int spawnCount = 0;
+            int updateCount = 0;
+            for (int i = 0; i < this.displays.length; i++) {
+                if (this.cellEids[i] == NO_ENTITY && !isEmpty(this.displays[i].getItemStack())) {
+                    if (freedCount > 0) {
+                        this.cellEids[i] = this.freedEids[--freedCount];
+                    } else if (this.hiddenCount > 0) {
+                        this.cellEids[i] = this.hiddenEids[--this.hiddenCount];
+                        this.releaseHiddenDisplays(this.hiddenCount, this.hiddenCount + 1);
+                        this.entityPool.remove(1);
+                        changed = true;
+                    } else {
+                        spawnCount++;
+                        continue;
+                    }
+                }
+                if (this.cellEids[i] != NO_ENTITY) {
+                    updateCount++;
+                }
+            }
+
+            if (!changed && spawnCount == 0) {
+                // Same entities as before, the snapshot already lists them. Hidden entities are included,
+                // but their metadata did not change, so nothing is sent for them.
+                final SpawnedCells spawnedCells = this.spawnedCells;
+                if (spawnedCells.eids().length > 0) {
+                    this.versionAdapter.updateItemDisplays(audience, spawnedCells.eids(), spawnedCells.displays());
                 }
+                return;
+            }
+
+            final int firstHidden = this.hiddenCount;
+            int destroyCount = 0;
+            final long now = System.nanoTime();
+            for (int j = 0; j < freedCount; j++) {
+                if (this.entityPool.tryAdd()) {
+                    this.hiddenDisplays[this.hiddenCount] = this.hiddenDisplay(this.displays[this.freedCells[j]]);
+                    this.hiddenEids[this.hiddenCount] = this.freedEids[j];
+                    this.hiddenSince[this.hiddenCount++] = now;
+                } else {
+                    this.freedEids[destroyCount++] = this.freedEids[j];
+                }
+            }
+            updateCount += this.hiddenCount - firstHidden;
+
+            if (destroyCount > 0) {
+                // Not a scratch array, destroy packets may keep the ids until they are sent
+                this.versionAdapter.destroyEntities(audience, Arrays.copyOf(this.freedEids, destroyCount));
+            }
+            if (updateCount > 0) {
+                final int[] ids = this.scratchIds(updateCount);
+                final FakeItemDisplay[] updated = this.scratchDisplays(updateCount);
+                int n = 0;
+                for (int i = 0; i < this.displays.length; i++) {
+                    if (this.cellEids[i] != NO_ENTITY) {
+                        ids[n] = this.cellEids[i];
+                        updated[n++] = this.displays[i];
+                    }
+                }
+                for (int i = firstHidden; i < this.hiddenCount; i++) {
+                    ids[n] = this.hiddenEids[i];
+                    updated[n++] = this.hiddenDisplays[i];
+                }
+                this.versionAdapter.updateItemDisplays(audience, ids, updated);
+            }
+            if (spawnCount > 0) {
+                final FakeItemDisplay[] spawned = this.scratchDisplays(spawnCount);
+                int n = 0;
+                for (int i = 0; i < this.displays.length; i++) {
+                    if (this.cellEids[i] == NO_ENTITY && !isEmpty(this.displays[i].getItemStack())) {
+                        this.spawnCells[n] = i;
+                        spawned[n++] = this.displays[i];
+                    }
+                }
+                final int[] ids = this.versionAdapter.spawnItemDisplays(audience, spawned);
+                for (int j = 0; j < spawnCount; j++) {
+                    this.cellEids[this.spawnCells[j]] = ids[j];
+                }
+            }
+            if (changed || spawnCount > 0) {
+                this.updateSnapshot();
             }
-            versionAdapter.updateItemDisplay(this.getResultEid(), this.getCraftingResult());
         }
 
-        public void destroyDisplays(final VersionAdapter versionAdapter) {
-            for (int row = 0; row < 3; row++) {
-                for (int col = 0; col < 3; col++) {
-                    versionAdapter.destroyEntity(this.getMatrixEid(col, row));
+        private int[] scratchIds(final int length) {
+            int[] ids = this.idScratch[length];
+            if (ids == null) {
+                ids = this.idScratch[length] = new int[length];
+            }
+            return ids;
+        }
+
+        private FakeItemDisplay[] scratchDisplays(final int length) {
+            FakeItemDisplay[] displays = this.displayScratch[length];
+            if (displays == null) {
+                displays = this.displayScratch[length] = new FakeItemDisplay[length];
+            }
+            return displays;
+        }
+
+        /**
+         * Get a display for an entity that is hidden at a cell. Same transformation as the cell, so that hiding only
+         * changes the item.
+         *
+         * @param cell The cell
+         *
+         * @return A display without an item
+         */
+        private FakeItemDisplay hiddenDisplay(final FakeItemDisplay cell) {
+            if (this.spareCount == 0) {
+                return new FakeItemDisplay(cell.getLocation(), AIR, cell.getTransformation(), cell.getTransform());
+            }
+            final FakeItemDisplay display = this.spareDisplays[--this.spareCount];
+            this.spareDisplays[this.spareCount] = null;
+            display.setLocation(cell.getLocation());
+            display.setTransformation(cell.getTransformation());
+            display.setTransform(cell.getTransform());
+            return display;
+        }
+
+        private void releaseHiddenDisplays(final int from, final int to) {
+            for (int i = from; i < to; i++) {
+                this.spareDisplays[this.spareCount++] = this.hiddenDisplays[i];
+                this.hiddenDisplays[i] = null;
+            }
+        }
+
+        /**
+         * Destroy hidden entities that have not been reused for too long
+         *
+         * @param audience The viewers
+         * @param now      The current time, see {@link System#nanoTime()}
+         */
+        public synchronized void trim(final Audience audience, final long now) {
+            int expired = 0;
+            while (expired < this.hiddenCount && this.entityPool.isExpired(this.hiddenSince[expired], now)) {
+                expired++;
+            }
+            if (expired == 0) {
+                return;
+            }
+
+            final int[] destroyed = Arrays.copyOf(this.hiddenEids, expired);
+            final int remaining = this.hiddenCount - expired;
+            this.releaseHiddenDisplays(0, expired);
+            System.arraycopy(this.hiddenEids, expired, this.hiddenEids, 0, remaining);
+            System.arraycopy(this.hiddenDisplays, expired, this.hiddenDisplays, 0, remaining);
+            System.arraycopy(this.hiddenSince, expired, this.hiddenSince, 0, remaining);
+            Arrays.fill(this.hiddenDisplays, remaining, this.hiddenCount, null);
+            this.hiddenCount = remaining;
+            this.entityPool.remove(expired);
+            this.updateSnapshot();
+            this.versionAdapter.destroyEntities(audience, destroyed);
+        }
+
+        public synchronized void destroyDisplays(final Audience audience) {
+            final SpawnedCells spawnedCells = this.spawnedCells;
+            this.spawnedCells = SpawnedCells.NONE;
+            Arrays.fill(this.cellEids, NO_ENTITY);
+            this.releaseHiddenDisplays(0, this.hiddenCount);
+            this.entityPool.remove(this.hiddenCount);
+            this.hiddenCount = 0;
+            if (spawnedCells.eids().length > 0) {
+                this.versionAdapter.destroyEntities(audience, spawnedCells.eids());
+            }
+        }
+
+        /**
+         * Check if this grid has no entities left
+         *
+         * @return True if neither cells nor hidden entities are spawned
+         */
+        public boolean isEmpty() {
+            return this.spawnedCells.eids().length == 0;
+        }
+
+        private void updateSnapshot() {
+            int count = this.hiddenCount;
+            for (final int eid : this.cellEids) {
+                count += eid == NO_ENTITY ? 0 : 1;
+            }
+            final int[] eids = new int[count];
+            final FakeItemDisplay[] displays = new FakeItemDisplay[count];
+            int n = 0;
+            for (int i = 0; i < this.cellEids.length; i++) {
+                if (this.cellEids[i] != NO_ENTITY) {
+                    eids[n] = this.cellEids[i];
+                    displays[n++] = this.displays[i];
                 }
             }
-            versionAdapter.destroyEntity(this.getResultEid());
+            System.arraycopy(this.hiddenEids, 0, eids, n, this.hiddenCount);
+            System.arraycopy(this.hiddenDisplays, 0, displays, n, this.hiddenCount);
+            this.spawnedCells = count == 0 ? SpawnedCells.NONE : new SpawnedCells(eids, displays);
+        }
+
+        @Override
+        public void show(final Audience audience) {
+            final SpawnedCells spawnedCells = this.spawnedCells;
+            if (spawnedCells.eids().length > 0) {
+                this.versionAdapter.replayItemDisplays(audience, spawnedCells.eids(), spawnedCells.displays());
+            }
+        }
+
+        @Override
+        public void hide(final Audience audience) {
+            final SpawnedCells spawnedCells = this.spawnedCells;
+            if (spawnedCells.eids().length > 0) {
+                this.versionAdapter.despawnEntities(audience, spawnedCells.eids());
+            }
         }
 
         public void setItems(final ItemStack[] matrix, final ItemStack result) {
@@ -155,84 +537,51 @@ public class DisplayVisualizationController implements VisualizationController {
         }
 
         public void adjustTo(final Location loc, final BlockFace facing) {
-            switch (facing) {
-                case NORTH -> this.adjustPos(loc, 1 - FIRST_PIXEL_OFF, 0, -PIXEL_OFF, 1 - FIRST_PIXEL_OFF, -PIXEL_OFF, 0);
-                case EAST -> this.adjustPos(loc, FIRST_PIXEL_OFF, PIXEL_OFF, 0, 1 - FIRST_PIXEL_OFF, 0, -PIXEL_OFF);
-                case SOUTH -> this.adjustPos(loc, FIRST_PIXEL_OFF, 0, PIXEL_OFF, FIRST_PIXEL_OFF, PIXEL_OFF, 0);
-                case WEST -> this.adjustPos(loc, 1 - FIRST_PIXEL_OFF, -PIXEL_OFF, 0, FIRST_PIXEL_OFF, 0, PIXEL_OFF);
-            }
-            this.adjustRot(facing);
-        }
-
-        private void adjustPos(final Location baseLoc, final double startX, final double addXRow, final double addXCol, final double startZ, final double addZRow, final double addZCol) {
-            for (int row = 0; row < 3; row++) {
-                for (int col = 0; col < 3; col++) {
-                    final FakeItemDisplay item = this.getMatrixCell(col, row);
-                    final double x = startX + (row * addXRow) + (col * addXCol);
-                    final double z = startZ + (row * addZRow) + (col * addZCol);
-                    //item.setLocation(baseLoc.clone().add(x, 0, z));
-                    item.setLocation(baseLoc);
-                    item.setTranslation(MatrixMath.translation((float) x, 0.005f, (float) z));
-                }
+            for (final FakeItemDisplay display : this.displays) {
+                display.setLocation(loc);
             }
-
-            final double x = startX + addXCol + this.ceil(addXRow) * -0.21;
-            final double z = startZ + addZCol + this.ceil(addZRow) * -0.21;
-            //this.craftingResult.setLocation(baseLoc.clone().add(x, 0, z));
-            this.craftingResult.setLocation(baseLoc);
-            this.craftingResult.setTranslation(MatrixMath.translation((float) x, 0.005f, (float) z));
+            this.setFacing(facing);
         }
 
-        private void adjustRot(final BlockFace facing) {
-            for (int row = 0; row < 3; row++) {
-                for (int col = 0; col < 3; col++) {
-                    final FakeItemDisplay item = this.getMatrixCell(col, row);
-                    item.setRotationZ(this.rotationZ(facing));
-                }
+        public void setFacing(final BlockFace facing) {
+            final DisplayTransformation[] transformations = TRANSFORMATIONS[this.facingIndex(facing)];
+            for (int i = 0; i < this.displays.length; i++) {
+                this.displays[i].setTransformation(transformations[i]);
             }
-            this.craftingResult.setRotationZ(this.rotationZ(facing));
         }
 
-        private Matrix3f rotationZ(final BlockFace face) {
-            return switch (face) {
-                case NORTH -> MatrixMath.rotationZ((float) Math.toRadians(0));
-                case EAST -> MatrixMath.rotationZ((float) Math.toRadians(90));
-                case SOUTH -> MatrixMath.rotationZ((float) Math.toRadians(180));
-                case WEST -> MatrixMath.rotationZ((float) Math.toRadians(270));
+        private int facingIndex(final BlockFace facing) {
+            return switch (facing) {
+                case NORTH -> 0;
+                case EAST -> 1;
+                case SOUTH -> 2;
+                case WEST -> 3;
                 default -> throw new UnsupportedOperationException();
             };
         }
 
-        private double ceil(final double f) {
-            return f < 0 ? -this.ceil(-f) : Math.ceil(f);
-        }
-
         public void setMatrixCell(final int col, final int row, final FakeItemDisplay display) {
-            this.craftingMatrix[row * 3 + col] = display;
+            this.displays[row * 3 + col] = display;
         }
 
         public FakeItemDisplay getMatrixCell(final int col, final int row) {
-            return this.craftingMatrix[row * 3 + col];
+            return this.displays[row * 3 + col];
         }
 
         public FakeItemDisplay getCraftingResult() {
             return this.craftingResult;
         }
 
-        public void setMatrixEid(final int col, final int row, final int eid) {
-            this.matrixEids[row * 3 + col] = eid;
-        }
+        /**
+         * The spawned entities of a grid, occupied cells followed by hidden entities
+         *
+         * @param eids     The entity ids
+         * @param displays The displays of the entities, in the same order
+         */
+        private record SpawnedCells(int[] eids, FakeItemDisplay[] displays) {
 
-        public int getMatrixEid(final int col, final int row) {
-            return this.matrixEids[row * 3 + col];
-        }
-
-        public int getResultEid() {
-            return this.resultEid;
-        }
+            private static final SpawnedCells NONE = new SpawnedCells(new int[0], new FakeItemDisplay[0]);
 
-        public void setResultEid(final int resultEid) {
-            this.resultEid = resultEid;
         }
 
     }
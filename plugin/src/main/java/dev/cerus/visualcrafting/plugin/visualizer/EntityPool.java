@@ -0,0 +1,68 @@
+package dev.cerus.visualcrafting.plugin.visualizer;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounds the amount of fake entities that are kept spawned but hidden for later reuse
+ * <p>
+ * Hidden entities stay at their crafting table, so reusing one only takes a metadata update instead of
+ * a destroy and a spawn. Entities that were not reused within the idle time are destroyed.
+ */
+public class EntityPool {
+
+    private final int maxSize;
+    private final long maxIdleNanos;
+    private final AtomicInteger size = new AtomicInteger();
+
+    /**
+     * @param maxSize       Maximum amount of hidden entities, 0 disables the pool
+     * @param maxIdleMillis Time after which hidden entities are destroyed
+     */
+    public EntityPool(final int maxSize, final long maxIdleMillis) {
+        this.maxSize = maxSize;
+        this.maxIdleNanos = TimeUnit.MILLISECONDS.toNanos(maxIdleMillis);
+    }
+
+    /**
+     * Reserve room for a hidden entity
+     *
+     * @return True if the entity may be kept, false if it has to be destroyed
+     */
+    boolean tryAdd() {
+        int current;
+        do {
+            current = this.size.get();
+            if (current >= this.maxSize) {
+                return false;
+            }
+        } while (!this.size.compareAndSet(current, current + 1));
+        return true;
+    }
+
+    /**
+     * Give back the room of hidden entities that were reused or destroyed
+     *
+     * @param count The amount of entities
+     */
+    void remove(final int count) {
+        this.size.addAndGet(-count);
+    }
+
+    /**
+     * Check if a hidden entity should be destroyed
+     *
+     * @param hiddenSince When the entity was hidden, see {@link System#nanoTime()}
+     * @param now         The current time, see {@link System#nanoTime()}
+     *
+     * @return True if the entity has been idle for too long
+     */
+    boolean isExpired(final long hiddenSince, final long now) {
+        return now - hiddenSince >= this.maxIdleNanos;
+    }
+
+    public int getSize() {
+        return this.size.get();
+    }
+
+}
@@ -0,0 +1,67 @@
+package dev.cerus.visualcrafting.plugin.visualizer;
+
+import java.util.Arrays;
+import org.bukkit.Material;
+import org.bukkit.inventory.ItemStack;
+
+/**
+ * Everything a rendered crafting map depends on. Two tables with equal layouts show identical maps.
+ */
+final class MapLayout {
+
+    static final int RESULT_INDEX = 3 * 3;
+
+    // Matrix cells followed by the result, null for empty slots
+    private final Material[] materials;
+    private final int hash;
+
+    private MapLayout(final Material[] materials) {
+        this.materials = materials;
+        this.hash = Arrays.hashCode(materials);
+    }
+
+    /**
+     * Create the layout of a crafting grid
+     *
+     * @param matrix The crafting matrix
+     * @param result The crafting result
+     *
+     * @return The layout
+     */
+    static MapLayout of(final ItemStack[] matrix, final ItemStack result) {
+        final Material[] materials = new Material[3 * 3 + 1];
+        for (int i = 0; i < 3 * 3; i++) {
+            materials[i] = matrix[i] == null ? null : matrix[i].getType();
+        }
+        materials[RESULT_INDEX] = result == null ? null : result.getType();
+        return new MapLayout(materials);
+    }
+
+    /**
+     * Get the material of a slot
+     *
+     * @param index The slot, matrix cells followed by the result
+     *
+     * @return The material or null if the slot is empty
+     */
+    Material getMaterial(final int index) {
+        return this.materials[index];
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof final MapLayout that)) {
+            return false;
+        }
+        return this.hash == that.hash && Arrays.equals(this.materials, that.materials);
+    }
+
+    @Override
+    public int hashCode() {
+        return this.hash;
+    }
+
+}
@@ -1,14 +1,19 @@
 package dev.cerus.visualcrafting.plugin.visualizer;
 
+import dev.cerus.visualcrafting.api.util.ConcurrentLongMap;
+import dev.cerus.visualcrafting.api.util.LongMap;
+import dev.cerus.visualcrafting.api.version.Audience;
 import dev.cerus.visualcrafting.api.version.FakeMap;
 import dev.cerus.visualcrafting.api.version.Feature;
 import dev.cerus.visualcrafting.api.version.VersionAdapter;
+import dev.cerus.visualcrafting.folia.FoliaUtil;
+import dev.cerus.visualcrafting.plugin.audience.AudienceResolver;
+import dev.cerus.visualcrafting.plugin.audience.ViewerTracker;
 import dev.cerus.visualcrafting.plugin.texture.Texture;
 import dev.cerus.visualcrafting.plugin.texture.TextureCache;
 import static dev.cerus.visualcrafting.plugin.visualizer.DirectionProvider.getDirection;
-import java.util.HashMap;
-import java.util.Map;
 import org.bukkit.Bukkit;
+import org.bukkit.Location;
 import org.bukkit.Material;
 import org.bukkit.Rotation;
 import org.bukkit.block.Block;
@@ -31,14 +36,26 @@ public class MapVisualizationController implements VisualizationController {
     private static final int SPACE = 8;
     private static final int WIDTH = 16;
     private static final int HEIGHT = 16;
+    private static final ItemStack EMPTY_ITEM = new ItemStack(Material.AIR);
 
-    private final Map<Long, Visualization<FramedMap>> visualizationMap = new HashMap<>();
+    private final LongMap<Visualization<FramedMap>> visualizationMap = FoliaUtil.isFolia() ? new ConcurrentLongMap<>() : new LongMap<>();
+    // Visualizations by frame entity id, always concurrent because clicks are checked on netty threads
+    private final LongMap<Visualization<FramedMap>> frameIndex = new ConcurrentLongMap<>();
     private final VersionAdapter versionAdapter;
     private final TextureCache textureCache;
+    private final AudienceResolver audienceResolver;
+    private final SharedMaps sharedMaps;
+    private final EntityPool entityPool;
 
-    public MapVisualizationController(final VersionAdapter versionAdapter, final TextureCache textureCache) {
+    public MapVisualizationController(final VersionAdapter versionAdapter,
+                                      final TextureCache textureCache,
+                                      final AudienceResolver audienceResolver,
+                                      final EntityPool entityPool) {
         this.versionAdapter = versionAdapter;
         this.textureCache = textureCache;
+        this.audienceResolver = audienceResolver;
+        this.entityPool = entityPool;
+        this.sharedMaps = new SharedMaps(versionAdapter, this::updateMap);
     }
 
     @Override
@@ -48,22 +65,27 @@ public class MapVisualizationController implements VisualizationController {
 
     @Override
     public void entityClick(final Player player, final int eid) {
-        this.visualizationMap.values().stream()
-                .filter(visualization -> visualization.obj.frameEntityId == eid)
-                .findAny()
-                .ifPresent(visualization -> {
-                    final PlayerInteractEvent interactEvent = new PlayerInteractEvent(player,
-                            Action.RIGHT_CLICK_BLOCK,
-                            player.getInventory().getItemInMainHand(),
-                            visualization.block.getLocation().getBlock(), // Get a fresh block object, the old one could be outdated
-                            BlockFace.SELF,
-                            EquipmentSlot.HAND);
-                    Bukkit.getPluginManager().callEvent(interactEvent);
-                    if (interactEvent.useInteractedBlock() == Event.Result.ALLOW
-                        || interactEvent.useInteractedBlock() == Event.Result.DEFAULT) {
-                        player.openWorkbench(visualization.block.getLocation(), false);
-                    }
-                });
+        final Visualization<FramedMap> visualization = this.frameIndex.get(eid);
+        if (visualization == null) {
+            return;
+        }
+
+        final PlayerInteractEvent interactEvent = new PlayerInteractEvent(player,
+                Action.RIGHT_CLICK_BLOCK,
+                player.getInventory().getItemInMainHand(),
+                visualization.block.getLocation().getBlock(), // Get a fresh block object, the old one could be outdated
+                BlockFace.SELF,
+                EquipmentSlot.HAND);
+        Bukkit.getPluginManager().callEvent(interactEvent);
+        if (interactEvent.useInteractedBlock() == Event.Result.ALLOW
+            || interactEvent.useInteractedBlock() == Event.Result.DEFAULT) {
+            player.openWorkbench(visualization.block.getLocation(), false);
+        }
+    }
+
+    @Override
+    public boolean isClickable(final int eid) {
+        return this.frameIndex.get(eid) != null;
     }
 
     /**
@@ -82,28 +104,87 @@ public class MapVisualizationController implements VisualizationController {
         }
 
         final long key = this.getBlockKey(craftingTable);
-        if (!this.visualizationMap.containsKey(key)) {
-            final int eid = this.versionAdapter.spawnItemFrame(craftingTable.getLocation().clone().add(0, 1, 0), BlockFace.UP);
-            final FakeMap map = this.versionAdapter.createMap();
-            final Visualization<FramedMap> visualization = new Visualization<>(
-                    craftingTable,
-                    actor,
-                    new FramedMap(map, eid)
-            );
-            this.visualizationMap.put(key, visualization);
-            this.updateMap(map, matrix, result);
-            this.versionAdapter.sendMap(map);
-            this.versionAdapter.updateItemFrame(eid, map.toItem(), this.calculateFrameRotation(actor), true);
-        } else {
-            final Visualization<FramedMap> visualization = this.visualizationMap.get(key);
-            if (!visualization.player.getUniqueId().equals(actor.getUniqueId())) {
-                // Someone else is using this crafting table
+        final BlockFace facing = getDirection(actor).getOppositeFace();
+        while (true) {
+            final Visualization<FramedMap> existing = this.visualizationMap.get(key);
+            if (existing == null) {
+                if (this.createVisualization(key, matrix, result, actor, craftingTable, facing)) {
+                    return;
+                }
+                // Created by another region in the meantime, use that one
+            } else if (this.updateVisualization(existing, matrix, result, actor, facing)) {
                 return;
             }
+            // Otherwise trimmed before we got hold of it, start over
+        }
+    }
+
+    /**
+     * Creates the visualization of a crafting table. Nothing is spawned unless the visualization is the one
+     * that ended up in the map.
+     *
+     * @return False if the table already had a visualization
+     */
+    private boolean createVisualization(final long key,
+                                        final ItemStack[] matrix,
+                                        final ItemStack result,
+                                        final Player actor,
+                                        final Block craftingTable,
+                                        final BlockFace facing) {
+        final FramedMap framedMap = new FramedMap(craftingTable.getLocation().add(0, 1, 0));
+        final Visualization<FramedMap> visualization = new Visualization<>(craftingTable, actor, framedMap, null);
+        // Held until the frame is spawned, other regions that find the visualization wait for it
+        synchronized (visualization) {
+            if (this.visualizationMap.getOrCreate(key, k -> visualization) != visualization) {
+                return false;
+            }
 
-            this.updateMap(visualization.obj.map, matrix, result);
-            this.versionAdapter.sendMap(visualization.obj.map);
-            this.versionAdapter.updateItemFrame(visualization.obj.frameEntityId, visualization.obj.map.toItem(), this.calculateFrameRotation(actor), true);
+            framedMap.rotation = this.calculateFrameRotation(facing);
+            visualization.viewers = this.audienceResolver.track(craftingTable, actor, framedMap);
+            visualization.fingerprint.update(matrix, result, facing);
+            framedMap.shared = this.sharedMaps.acquire(MapLayout.of(matrix, result), visualization.viewers);
+            framedMap.frameEntityId = this.versionAdapter.spawnItemFrame(visualization.viewers, framedMap.location, BlockFace.UP);
+            this.frameIndex.put(framedMap.frameEntityId, visualization);
+            this.versionAdapter.updateItemFrame(visualization.viewers, framedMap.frameEntityId, framedMap.shared.map.toItem(), framedMap.rotation, true);
+            return true;
+        }
+    }
+
+    /**
+     * Renders a new recipe onto an existing visualization
+     *
+     * @return False if the visualization was removed in the meantime
+     */
+    private boolean updateVisualization(final Visualization<FramedMap> visualization,
+                                        final ItemStack[] matrix,
+                                        final ItemStack result,
+                                        final Player actor,
+                                        final BlockFace facing) {
+        synchronized (visualization) {
+            if (visualization.removed) {
+                return false;
+            }
+            if (visualization.player == null) {
+                // Hidden after the last crafter left, take it over
+                visualization.player = actor;
+                this.entityPool.remove(1);
+            } else if (!visualization.player.getUniqueId().equals(actor.getUniqueId())) {
+                // Someone else is using this crafting table
+                return true;
+            }
+            if (!visualization.fingerprint.update(matrix, result, facing)) {
+                // Nothing changed since the last render
+                return true;
+            }
+
+            final MapLayout layout = MapLayout.of(matrix, result);
+            final FramedMap framedMap = visualization.obj;
+            framedMap.rotation = this.calculateFrameRotation(facing);
+            framedMap.shared = framedMap.shared == null
+                    ? this.sharedMaps.acquire(layout, visualization.viewers)
+                    : this.sharedMaps.change(framedMap.shared, layout, visualization.viewers);
+            this.versionAdapter.updateItemFrame(visualization.viewers, framedMap.frameEntityId, framedMap.shared.map.toItem(), framedMap.rotation, true);
+            return true;
         }
     }
 
@@ -117,51 +198,77 @@ public class MapVisualizationController implements VisualizationController {
     @Override
     public void craftingCancelled(final Player actor, final Block craftingTable) {
         final long key = this.getBlockKey(craftingTable);
-        if (!this.visualizationMap.containsKey(key)) {
+        final Visualization<FramedMap> visualization = this.visualizationMap.get(key);
+        if (visualization == null) {
             return;
         }
 
-        final Visualization<FramedMap> visualization = this.visualizationMap.get(key);
-        if (!visualization.player.getUniqueId().equals(actor.getUniqueId())) {
-            return;
+        synchronized (visualization) {
+            if (visualization.player == null || !visualization.player.getUniqueId().equals(actor.getUniqueId())) {
+                return;
+            }
+
+            final FramedMap framedMap = visualization.obj;
+            final SharedMaps.SharedMap shared = framedMap.shared;
+            if (this.audienceResolver.isCrafterIndependent() && this.entityPool.tryAdd()) {
+                // Keep the frame without an item, reopening the table then only takes a metadata update
+                visualization.player = null;
+                visualization.fingerprint.reset();
+                framedMap.hiddenSince = System.nanoTime();
+                framedMap.shared = null;
+                this.versionAdapter.updateItemFrame(visualization.viewers, framedMap.frameEntityId, EMPTY_ITEM, framedMap.rotation, true);
+                this.sharedMaps.release(shared);
+                return;
+            }
+
+            visualization.removed = true;
+            this.visualizationMap.remove(key, visualization);
+            this.frameIndex.remove(framedMap.frameEntityId, visualization);
+            this.versionAdapter.destroyEntity(this.audienceResolver.untrack(actor, framedMap), framedMap.frameEntityId);
+            this.sharedMaps.release(shared);
         }
+    }
 
-        this.visualizationMap.remove(key);
-        this.versionAdapter.destroyEntity(visualization.obj.frameEntityId);
+    @Override
+    public void trimPool() {
+        final long now = System.nanoTime();
+        this.visualizationMap.removeIf(visualization -> {
+            // The table might be taken over on its region right now
+            synchronized (visualization) {
+                if (visualization.player == null && this.entityPool.isExpired(visualization.obj.hiddenSince, now)) {
+                    visualization.removed = true;
+                    this.entityPool.remove(1);
+                    this.frameIndex.remove(visualization.obj.frameEntityId, visualization);
+                    this.versionAdapter.destroyEntity(this.audienceResolver.untrack(null, visualization.obj), visualization.obj.frameEntityId);
+                    return true;
+                }
+                return false;
+            }
+        });
     }
 
     /**
-     * Draws the crafting matrix onto a map
+     * Draws the crafting matrix onto a map. Every slot is redrawn in place, so only slots that
+     * actually look different end up in the map's dirty region.
      *
      * @param map    The canvas
-     * @param matrix The crafting matrix
-     * @param result The crafting result
+     * @param layout The crafting matrix and result
      */
-    private void updateMap(final FakeMap map, final ItemStack[] matrix, final ItemStack result) {
-        for (int x = 0; x < 128; x++) {
-            for (int y = 0; y < 128; y++) {
-                map.setPixel(x, y, (byte) 0);
-            }
-        }
-
-        if (result != null) {
-            this.drawItem(map, result.getType(), MIN_X + WIDTH + SPACE, SPACE);
-        }
+    private void updateMap(final FakeMap map, final MapLayout layout) {
+        this.drawItem(map, layout.getMaterial(MapLayout.RESULT_INDEX), MIN_X + WIDTH + SPACE, SPACE);
 
         for (int row = 0; row < 3; row++) {
             for (int col = 0; col < 3; col++) {
-                final ItemStack item = matrix[(row * 3) + col];
+                final Material material = layout.getMaterial((row * 3) + col);
                 final int x = MIN_X + (col * (WIDTH + SPACE));
                 final int y = MIN_Y + (row * (HEIGHT + SPACE));
-                if (item != null) {
-                    this.drawItem(map, item.getType(), x, y);
-                }
+                this.drawItem(map, material, x, y);
             }
         }
     }
 
     /**
-     * Attempts to draw a material
+     * Attempts to draw a material. The slot is left blank if there is no material or texture.
      *
      * @param map      The canvas
      * @param material The material to draw
@@ -169,6 +276,22 @@ public class MapVisualizationController implements VisualizationController {
      * @param baseY    The y pos
      */
     private void drawItem(final FakeMap map, final Material material, final int baseX, final int baseY) {
+        final Texture texture = material == null ? null : this.getTexture(material);
+        for (int xx = 0; xx < WIDTH; xx++) {
+            for (int yy = 0; yy < HEIGHT; yy++) {
+                map.setPixel(baseX + xx, baseY + yy, texture == null ? 0 : texture.get(xx, yy));
+            }
+        }
+    }
+
+    /**
+     * Attempts to find the texture of a material
+     *
+     * @param material The material
+     *
+     * @return The texture or null
+     */
+    private Texture getTexture(final Material material) {
         Texture texture;
         if (material.isBlock()) {
             texture = this.textureCache.getTexture("block", material.name().toLowerCase());
@@ -183,26 +306,18 @@ public class MapVisualizationController implements VisualizationController {
         } else {
             texture = null;
         }
-
-        if (texture != null) {
-            for (int xx = 0; xx < 16; xx++) {
-                for (int yy = 0; yy < 16; yy++) {
-                    map.setPixel(baseX + xx, baseY + yy, texture.get(xx, yy));
-                }
-            }
-        }
+        return texture;
     }
 
     /**
      * Calculate the frame rotation that's needed to face the player
      *
-     * @param actor The player
+     * @param facing The opposite of the player's direction
      *
-     * @return The player's direction
+     * @return The frame rotation
      */
-    private Rotation calculateFrameRotation(final Player actor) {
-        final var yaw = actor.getLocation().getYaw();
-        return switch (getDirection(yaw).getOppositeFace()) {
+    private Rotation calculateFrameRotation(final BlockFace facing) {
+        return switch (facing) {
             case WEST -> Rotation.CLOCKWISE_45;
             case NORTH -> Rotation.CLOCKWISE;
             case EAST -> Rotation.CLOCKWISE_135;
@@ -219,14 +334,39 @@ public class MapVisualizationController implements VisualizationController {
         return ((long) x & 0x7FFFFFF) | (((long) z & 0x7FFFFFF) << 27) | ((long) y << 54);
     }
 
-    private static class FramedMap {
+    private class FramedMap implements ViewerTracker.Viewable {
+
+        public final Location location;
+        public volatile SharedMaps.SharedMap shared;
+        public volatile int frameEntityId = -1;
+        public Rotation rotation;
+        public long hiddenSince;
 
-        public FakeMap map;
-        public int frameEntityId;
+        public FramedMap(final Location location) {
+            this.location = location;
+        }
+
+        @Override
+        public void show(final Audience audience) {
+            if (this.frameEntityId == -1) {
+                // Not spawned yet, the new viewer will get the spawn
+                return;
+            }
+            final SharedMaps.SharedMap shared = this.shared;
+            if (shared == null) {
+                // Hidden, only the empty frame
+                MapVisualizationController.this.versionAdapter.replayItemFrame(audience, this.frameEntityId, this.location, BlockFace.UP, EMPTY_ITEM, this.rotation, true);
+                return;
+            }
+            MapVisualizationController.this.versionAdapter.replayMap(audience, shared.map);
+            MapVisualizationController.this.versionAdapter.replayItemFrame(audience, this.frameEntityId, this.location, BlockFace.UP, shared.map.toItem(), this.rotation, true);
+        }
 
-        public FramedMap(final FakeMap map, final int frameEntityId) {
-            this.map = map;
-            this.frameEntityId = frameEntityId;
+        @Override
+        public void hide(final Audience audience) {
+            if (this.frameEntityId != -1) {
+                MapVisualizationController.this.versionAdapter.despawnEntities(audience, this.frameEntityId);
+            }
         }
 
     }
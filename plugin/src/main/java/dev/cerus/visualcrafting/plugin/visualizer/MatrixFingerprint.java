@@ -0,0 +1,77 @@
+package dev.cerus.visualcrafting.plugin.visualizer;
+
+import java.util.Arrays;
+import org.bukkit.block.BlockFace;
+import org.bukkit.inventory.ItemStack;
+
+/**
+ * Cheap summary of the last rendered crafting grid. Lets the controllers skip updates that would not change anything,
+ * for example clicks in the player inventory or cancelled clicks.
+ * <p>
+ * Every slot is summarized by its material and amount. The item itself is kept as well and compared with
+ * {@link ItemStack#isSimilar(ItemStack)}, which compares the items of an inventory without copying their metas.
+ * Items that are modified in place keep comparing as similar, which at worst delays a purely cosmetic update
+ * until the grid changes again.
+ */
+final class MatrixFingerprint {
+
+    private static final int SLOTS = 3 * 3 + 1;
+    private static final int VALUES_PER_SLOT = 2;
+    private static final int EMPTY = -1;
+
+    // Material and amount of every slot followed by the facing
+    private final int[] values = new int[SLOTS * VALUES_PER_SLOT + 1];
+    private final ItemStack[] items = new ItemStack[SLOTS];
+
+    MatrixFingerprint() {
+        this.reset();
+    }
+
+    /**
+     * Replace the fingerprint with the given grid
+     *
+     * @param matrix The crafting matrix
+     * @param result The crafting result
+     * @param facing The direction the grid is facing
+     *
+     * @return True if the grid differs from the previous one
+     */
+    boolean update(final ItemStack[] matrix, final ItemStack result, final BlockFace facing) {
+        boolean changed = false;
+        for (int i = 0; i < SLOTS - 1; i++) {
+            changed |= this.setSlot(i, matrix[i]);
+        }
+        changed |= this.setSlot(SLOTS - 1, result);
+        changed |= this.set(SLOTS * VALUES_PER_SLOT, facing.ordinal());
+        return changed;
+    }
+
+    /**
+     * Forget the last grid, the next update will always count as a change
+     */
+    void reset() {
+        Arrays.fill(this.values, Integer.MIN_VALUE);
+        Arrays.fill(this.items, null);
+    }
+
+    private boolean setSlot(final int slot, final ItemStack item) {
+        final int index = slot * VALUES_PER_SLOT;
+        final ItemStack previous = this.items[slot];
+        this.items[slot] = item;
+        if (item == null) {
+            return this.set(index, EMPTY) | this.set(index + 1, 0);
+        }
+        return this.set(index, item.getType().ordinal())
+               | this.set(index + 1, item.getAmount())
+               | (item != previous && (previous == null || !item.isSimilar(previous)));
+    }
+
+    private boolean set(final int index, final int value) {
+        if (this.values[index] == value) {
+            return false;
+        }
+        this.values[index] = value;
+        return true;
+    }
+
+}
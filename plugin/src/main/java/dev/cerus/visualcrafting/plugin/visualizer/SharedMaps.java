@@ -0,0 +1,112 @@
+package dev.cerus.visualcrafting.plugin.visualizer;
+
+import dev.cerus.visualcrafting.api.version.Audience;
+import dev.cerus.visualcrafting.api.version.FakeMap;
+import dev.cerus.visualcrafting.api.version.VersionAdapter;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * Interns rendered maps by their layout, so that every table showing the same layout shares one map id
+ * and one buffer. Maps are reference counted and given back to the adapter once no table uses them.
+ * <p>
+ * A map that is only used by a single table is repainted in place when the table's layout changes,
+ * which keeps partial map updates possible for the common case.
+ */
+class SharedMaps {
+
+    private final Map<MapLayout, SharedMap> maps = new HashMap<>();
+    private final VersionAdapter versionAdapter;
+    private final BiConsumer<FakeMap, MapLayout> painter;
+
+    /**
+     * @param versionAdapter The adapter that provides and sends the maps
+     * @param painter        Draws a layout onto a map
+     */
+    SharedMaps(final VersionAdapter versionAdapter, final BiConsumer<FakeMap, MapLayout> painter) {
+        this.versionAdapter = versionAdapter;
+        this.painter = painter;
+    }
+
+    /**
+     * Get the map of a layout and make sure that the viewers have its contents
+     *
+     * @param layout  The layout
+     * @param viewers The viewers of the table that will show the map
+     *
+     * @return The shared map, has to be released once the table no longer shows it
+     */
+    synchronized SharedMap acquire(final MapLayout layout, final Audience viewers) {
+        SharedMap shared = this.maps.get(layout);
+        if (shared == null) {
+            shared = new SharedMap(this.versionAdapter.createMap(), layout);
+            this.painter.accept(shared.map, layout);
+            this.maps.put(layout, shared);
+            // Fresh maps are fully dirty, so this sends everything
+            this.versionAdapter.sendMap(viewers, shared.map);
+        } else {
+            // Other tables have already sent the map, but not to these viewers
+            this.versionAdapter.replayMap(viewers, shared.map);
+        }
+        shared.references++;
+        return shared;
+    }
+
+    /**
+     * Switch a table to another layout
+     *
+     * @param current The map the table currently shows
+     * @param layout  The new layout
+     * @param viewers The viewers of the table
+     *
+     * @return The map the table has to show now, may be the current map
+     */
+    synchronized SharedMap change(final SharedMap current, final MapLayout layout, final Audience viewers) {
+        if (current.layout.equals(layout)) {
+            return current;
+        }
+        if (current.references == 1 && !this.maps.containsKey(layout)) {
+            // Nobody else uses the map and the layout is new, repaint and only send the changes
+            this.maps.remove(current.layout);
+            current.layout = layout;
+            this.painter.accept(current.map, layout);
+            this.maps.put(layout, current);
+            this.versionAdapter.sendMap(viewers, current.map);
+            return current;
+        }
+
+        final SharedMap next = this.acquire(layout, viewers);
+        this.release(current);
+        return next;
+    }
+
+    /**
+     * Release a map that a table no longer shows
+     *
+     * @param shared The map
+     */
+    synchronized void release(final SharedMap shared) {
+        if (--shared.references == 0) {
+            this.maps.remove(shared.layout);
+            this.versionAdapter.releaseMap(shared.map);
+        }
+    }
+
+    /**
+     * A map that is shared by all tables with the same layout
+     */
+    static final class SharedMap {
+
+        final FakeMap map;
+        private MapLayout layout;
+        private int references;
+
+        private SharedMap(final FakeMap map, final MapLayout layout) {
+            this.map = map;
+            this.layout = layout;
+        }
+
+    }
+
+}
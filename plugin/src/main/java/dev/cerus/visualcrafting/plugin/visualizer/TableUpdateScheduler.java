@@ -0,0 +1,98 @@
+package dev.cerus.visualcrafting.plugin.visualizer;
+
+import dev.cerus.visualcrafting.folia.FoliaUtil;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.bukkit.block.Block;
+import org.bukkit.entity.Player;
+import org.bukkit.inventory.CraftingInventory;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.plugin.java.JavaPlugin;
+
+/**
+ * Collects crafting tables whose contents changed and updates each of them once per tick
+ * <p>
+ * A single click usually fires several inventory events. Instead of scheduling an update for every event,
+ * events only mark the table as dirty and the table is read once when the tick is processed. Every player has
+ * their own crafting inventory, so tables are tracked per player.
+ */
+public class TableUpdateScheduler {
+
+    private final JavaPlugin plugin;
+    private final VisualizationController visualizationController;
+    private final Map<DirtyTable, CraftingInventory> dirtyTables = new ConcurrentHashMap<>();
+
+    public TableUpdateScheduler(final JavaPlugin plugin, final VisualizationController visualizationController) {
+        this.plugin = plugin;
+        this.visualizationController = visualizationController;
+    }
+
+    /**
+     * Mark a crafting table as dirty for a player
+     *
+     * @param player    The player that changed the table contents
+     * @param inventory The crafting inventory of the table
+     * @param table     The crafting table
+     */
+    public void markDirty(final Player player, final CraftingInventory inventory, final Block table) {
+        final DirtyTable dirtyTable = new DirtyTable(table, player);
+        final CraftingInventory previous = this.dirtyTables.put(dirtyTable, inventory);
+        if (previous == null && FoliaUtil.isFolia()) {
+            // Tables can only be read by the thread that owns their region
+            FoliaUtil.scheduleOnRegion(this.plugin, table.getLocation(), () -> this.process(dirtyTable), 1);
+        }
+    }
+
+    /**
+     * Update every dirty table. Has to be called once per tick, unless running on Folia.
+     */
+    public void processAll() {
+        if (this.dirtyTables.isEmpty()) {
+            return;
+        }
+
+        final Iterator<Map.Entry<DirtyTable, CraftingInventory>> iterator = this.dirtyTables.entrySet().iterator();
+        while (iterator.hasNext()) {
+            final Map.Entry<DirtyTable, CraftingInventory> entry = iterator.next();
+            iterator.remove();
+            this.update(entry.getKey(), entry.getValue());
+        }
+    }
+
+    private void process(final DirtyTable dirtyTable) {
+        final CraftingInventory inventory = this.dirtyTables.remove(dirtyTable);
+        if (inventory != null) {
+            this.update(dirtyTable, inventory);
+        }
+    }
+
+    private void update(final DirtyTable dirtyTable, final CraftingInventory inventory) {
+        final Player player = dirtyTable.player();
+        if (!player.isOnline()) {
+            return;
+        }
+
+        final Block table = dirtyTable.table();
+        final ItemStack[] matrix = inventory.getMatrix();
+        final ItemStack result = inventory.getResult();
+        if (result == null && isEmpty(matrix)) {
+            this.visualizationController.craftingCancelled(player, table);
+        } else {
+            this.visualizationController.recipeSelected(matrix, result, player, table);
+        }
+    }
+
+    private static boolean isEmpty(final ItemStack[] matrix) {
+        for (final ItemStack item : matrix) {
+            if (item != null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private record DirtyTable(Block table, Player player) {
+    }
+
+}
@@ -1,21 +1,31 @@
 package dev.cerus.visualcrafting.plugin.visualizer;
 
+import dev.cerus.visualcrafting.api.version.Audience;
 import org.bukkit.block.Block;
 import org.bukkit.entity.Player;
 
 /**
  * Simple data class for a visualization. Fields are public because this class can only be used by the controller.
+ * <p>
+ * On Folia the pool is trimmed on the global region while tables are used on their own region, so
+ * taking over a hidden visualization and removing it is done while holding the visualization's monitor.
  */
 class Visualization<T> {
 
     public Block block;
     public Player player;
     public T obj;
+    public Audience viewers;
+    // Set once the visualization was taken out of the controller, guarded by the visualization's monitor
+    public boolean removed;
+    // Grid that was rendered last
+    public final MatrixFingerprint fingerprint = new MatrixFingerprint();
 
-    Visualization(final Block block, final Player player, final T obj) {
+    Visualization(final Block block, final Player player, final T obj, final Audience viewers) {
         this.block = block;
         this.player = player;
         this.obj = obj;
+        this.viewers = viewers;
     }
 
 }
@@ -27,6 +27,16 @@ public interface VisualizationController {
      */
     void entityClick(final Player player, final int eid);
 
+    /**
+     * Returns whether clicks on an entity are handled by this controller. Called from netty threads
+     * for every click on one of our entities, so it has to be cheap and thread safe.
+     *
+     * @param eid The clicked entity
+     *
+     * @return True if the click should be passed to {@link #entityClick(Player, int)}
+     */
+    boolean isClickable(final int eid);
+
     /**
      * A player has selected a recipe. This will display the recipe
      * if the constraints are met.
@@ -47,4 +57,9 @@ public interface VisualizationController {
      */
     void craftingCancelled(final Player actor, final Block craftingTable);
 
+    /**
+     * Destroy hidden entities that have not been reused for too long. Called periodically.
+     */
+    void trimPool();
+
 }
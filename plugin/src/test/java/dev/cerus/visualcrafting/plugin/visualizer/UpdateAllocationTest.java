@@ -0,0 +1,272 @@
+package dev.cerus.visualcrafting.plugin.visualizer;
+
+import com.sun.management.ThreadMXBean;
+import dev.cerus.visualcrafting.api.config.Config;
+import dev.cerus.visualcrafting.api.version.Audience;
+import dev.cerus.visualcrafting.api.version.FakeItemDisplay;
+import dev.cerus.visualcrafting.api.version.FakeMap;
+import dev.cerus.visualcrafting.api.version.MapRegion;
+import dev.cerus.visualcrafting.api.version.VersionAdapter;
+import dev.cerus.visualcrafting.plugin.audience.AudiencePolicy;
+import dev.cerus.visualcrafting.plugin.audience.AudienceResolver;
+import io.netty.channel.Channel;
+import io.netty.channel.embedded.EmbeddedChannel;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.util.UUID;
+import java.util.function.BiConsumer;
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.Rotation;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockFace;
+import org.bukkit.entity.Player;
+import org.bukkit.inventory.ItemStack;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Makes sure that selecting a recipe on a crafting table whose entities stay the same does not allocate,
+ * from the controller down to the packet sink
+ * <p>
+ * Players and blocks are proxies, which allocate an argument array for every call with arguments.
+ * The calls the controller makes are measured on their own and subtracted. Any allocation of the update itself
+ * takes at least 16 bytes, so one-off noise (e.g. from the JIT) is ignored by comparing the bytes per update.
+ */
+class UpdateAllocationTest {
+
+    private static final int WARMUP_RUNS = 20_000;
+    private static final int RUNS = 10_000;
+
+    private TestAdapter adapter;
+    private DisplayVisualizationController controller;
+    private Player player;
+    private Block craftingTable;
+    private float yaw;
+    private ItemStack[] first;
+    private ItemStack[] second;
+    private ItemStack firstResult;
+    private ItemStack secondResult;
+
+    @BeforeEach
+    void setUp() {
+        this.adapter = new TestAdapter();
+        this.controller = new DisplayVisualizationController(this.adapter,
+                new AudienceResolver(AudiencePolicy.CRAFTER, null),
+                new EntityPool(16, 1000));
+        this.player = this.createPlayer();
+        this.craftingTable = createBlock(Material.CRAFTING_TABLE);
+        // Every occupied cell changes its material, so the entities stay the same but every update is sent
+        this.first = matrix(Material.OAK_PLANKS, Material.STICK);
+        this.second = matrix(Material.BIRCH_PLANKS, Material.IRON_INGOT);
+        this.firstResult = new ItemStack(Material.CRAFTING_TABLE);
+        this.secondResult = new ItemStack(Material.IRON_PICKAXE);
+
+        this.controller.recipeSelected(this.first, this.firstResult, this.player, this.craftingTable);
+    }
+
+    @AfterEach
+    void tearDown() {
+        this.adapter.channel.close();
+    }
+
+    @Test
+    void unchangedRecipeDoesNotAllocate() {
+        final int packets = this.adapter.packets;
+        final long allocated = allocatedBytes(() ->
+                this.controller.recipeSelected(this.first, this.firstResult, this.player, this.craftingTable));
+
+        assertEquals(0, (allocated - this.stubAllocatedBytes()) / RUNS, "Bytes allocated per unchanged recipe");
+        assertEquals(packets, this.adapter.packets, "Unchanged recipes were sent");
+    }
+
+    @Test
+    void changedRecipeDoesNotAllocate() {
+        final int packets = this.adapter.packets;
+        final int[] run = {0};
+        final long allocated = allocatedBytes(() -> {
+            final boolean even = (run[0]++ & 1) == 0;
+            // Looking west instead of south turns the grid
+            this.yaw = even ? 90 : 0;
+            this.controller.recipeSelected(even ? this.second : this.first,
+                    even ? this.secondResult : this.firstResult,
+                    this.player,
+                    this.craftingTable);
+        });
+
+        assertEquals(0, (allocated - this.stubAllocatedBytes()) / RUNS, "Bytes allocated per changed recipe");
+        assertEquals(1, this.adapter.spawns, "Entities were respawned");
+        assertTrue(this.adapter.packets - packets >= WARMUP_RUNS + RUNS, "Updates were not sent");
+    }
+
+    /**
+     * Measure what the proxied calls of {@link DisplayVisualizationController#recipeSelected} allocate
+     */
+    private long stubAllocatedBytes() {
+        return allocatedBytes(() -> {
+            if (!this.craftingTable.getRelative(BlockFace.UP).getType().isTransparent()) {
+                throw new AssertionError("Crafting table is covered");
+            }
+            DirectionProvider.getDirection(this.player);
+        });
+    }
+
+    private static long allocatedBytes(final Runnable update) {
+        final ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+
+        // Let the JIT settle, the first calls can allocate while classes are loaded
+        for (int i = 0; i < WARMUP_RUNS; i++) {
+            update.run();
+        }
+        final long before = threads.getCurrentThreadAllocatedBytes();
+        for (int i = 0; i < RUNS; i++) {
+            update.run();
+        }
+        return threads.getCurrentThreadAllocatedBytes() - before;
+    }
+
+    private static ItemStack[] matrix(final Material planks, final Material stick) {
+        return new ItemStack[] {
+                new ItemStack(planks), new ItemStack(planks), null,
+                new ItemStack(planks), new ItemStack(stick), null,
+                null, new ItemStack(stick), null
+        };
+    }
+
+    private Player createPlayer() {
+        final UUID uuid = UUID.randomUUID();
+        return proxy(Player.class, (proxy, method, args) -> switch (method.getName()) {
+            case "getUniqueId" -> uuid;
+            case "getLocation" -> {
+                final Location location = (Location) args[0];
+                location.setYaw(this.yaw);
+                yield location;
+            }
+            default -> objectMethod(proxy, method.getName(), args);
+        });
+    }
+
+    private static Block createBlock(final Material type) {
+        final Block[] above = new Block[1];
+        return proxy(Block.class, (proxy, method, args) -> switch (method.getName()) {
+            case "getType" -> type;
+            case "getRelative" -> {
+                if (above[0] == null) {
+                    above[0] = createBlock(Material.AIR);
+                }
+                yield above[0];
+            }
+            case "getX", "getZ" -> 0;
+            case "getY" -> 64;
+            case "getLocation" -> new Location(null, 0, 64, 0);
+            default -> objectMethod(proxy, method.getName(), args);
+        });
+    }
+
+    private static Object objectMethod(final Object proxy, final String name, final Object[] args) {
+        return switch (name) {
+            case "hashCode" -> System.identityHashCode(proxy);
+            case "equals" -> proxy == args[0];
+            case "toString" -> proxy.getClass().getSimpleName();
+            default -> throw new UnsupportedOperationException(name);
+        };
+    }
+
+    private static <T> T proxy(final Class<T> type, final InvocationHandler handler) {
+        return type.cast(Proxy.newProxyInstance(UpdateAllocationTest.class.getClassLoader(), new Class<?>[] {type}, handler));
+    }
+
+    /**
+     * Sends display metadata through the adapter's packet sink like the real adapters do. Packets are only counted.
+     */
+    private static final class TestAdapter extends VersionAdapter {
+
+        private static final Object PACKET = new Object();
+
+        private final EmbeddedChannel channel = new EmbeddedChannel();
+        private int nextId = 1;
+        private int spawns;
+        private int packets;
+
+        @Override
+        public void init(final Config config, final BiConsumer<Player, Integer> entityClickCallback) {
+        }
+
+        @Override
+        public int spawnItemFrame(final Audience audience, final Location location, final BlockFace direction) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void updateItemFrame(final Audience audience, final int frameId, final ItemStack itemStack, final Rotation rotation, final boolean invisible) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void replayItemFrame(final Audience audience,
+                                    final int frameId,
+                                    final Location location,
+                                    final BlockFace direction,
+                                    final ItemStack itemStack,
+                                    final Rotation rotation,
+                                    final boolean invisible) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int[] spawnItemDisplays(final Audience audience, final FakeItemDisplay[] itemDisplays) {
+            this.spawns++;
+            final int[] ids = new int[itemDisplays.length];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = this.nextId++;
+            }
+            return ids;
+        }
+
+        @Override
+        public void updateItemDisplay(final Audience audience, final int displayId, final FakeItemDisplay itemDisplay) {
+            this.sendItemDisplayState(audience, PACKET, displayId, itemDisplay);
+        }
+
+        @Override
+        protected Object createFullItemDisplayMetadataPacket(final int displayId, final FakeItemDisplay itemDisplay) {
+            return PACKET;
+        }
+
+        @Override
+        public void destroyEntity(final Audience audience, final int entityId) {
+        }
+
+        @Override
+        public void despawnEntities(final Audience audience, final int... entityIds) {
+        }
+
+        @Override
+        protected FakeMap newMap() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        protected Object createMapPacket(final FakeMap map, final MapRegion region) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        protected Channel getChannel(final Player player) {
+            return this.channel;
+        }
+
+        @Override
+        protected void sendPacket(final Player player, final Object packet) {
+            this.packets++;
+        }
+
+    }
+
+}